@@ -0,0 +1,79 @@
+package org.reactivecouchbase.sbessentials.benchmarks;
+
+import javaslang.collection.HashMap;
+import javaslang.control.Either;
+import org.reactivecouchbase.concurrent.Future;
+import org.reactivecouchbase.sbessentials.libs.actions.Action;
+import org.reactivecouchbase.sbessentials.libs.actions.ActionPipeline;
+import org.reactivecouchbase.sbessentials.libs.actions.RequestContext;
+import org.reactivecouchbase.sbessentials.libs.result.Result;
+import org.reactivecouchbase.sbessentials.libs.result.Results;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Cost of running chains of filters, nested the way `combine` used to nest them, or flattened in a pipeline.
+ *
+ * Run with `./gradlew jmh`.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ActionPipelineBenchmark {
+
+    @Param({ "1", "4", "8", "12", "20" })
+    public int filters;
+
+    private RequestContext context;
+    private Function<RequestContext, Future<Result>> block;
+    private Action nestedActions;
+    private Action pipelineActions;
+    private Action pipelineFilters;
+
+    @Setup
+    public void setup() {
+        Result ok = Results.Ok.text("ok");
+        context = new RequestContext(HashMap.empty(), null, null, null);
+        block = ctx -> Future.successful(ok);
+        Action filter = (request, next) -> next.apply(request);
+        Action nested = filter;
+        ActionPipeline.Builder actions = ActionPipeline.newBuilder().andThen(filter);
+        ActionPipeline.Builder filters = ActionPipeline.newBuilder().before(Either::right);
+        for (int i = 1; i < this.filters; i++) {
+            nested = nest(nested, filter);
+            actions.andThen(filter);
+            filters.before(Either::right);
+        }
+        nestedActions = nested;
+        pipelineActions = actions.build();
+        pipelineFilters = filters.build();
+    }
+
+    private static Action nest(Action that, Action other) {
+        return (request, block) -> that.innerInvoke(request, r1 -> other.innerInvoke(r1, block));
+    }
+
+    @Benchmark
+    public Future<Result> nestedActions() {
+        return nestedActions.innerInvoke(context, block);
+    }
+
+    @Benchmark
+    public Future<Result> pipelineOfActions() {
+        return pipelineActions.innerInvoke(context, block);
+    }
+
+    @Benchmark
+    public Future<Result> pipelineOfFilters() {
+        return pipelineFilters.innerInvoke(context, block);
+    }
+}
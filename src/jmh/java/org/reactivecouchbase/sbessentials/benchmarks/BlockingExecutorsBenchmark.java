@@ -0,0 +1,65 @@
+package org.reactivecouchbase.sbessentials.benchmarks;
+
+import org.reactivecouchbase.sbessentials.libs.future.BlockingExecutors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to serve 10k concurrent slow requests, each one blocking 50ms, with the `fixed` and `virtual` executors.
+ *
+ * The `virtual` executor falls back to the fixed pool on JVMs without virtual threads, run it on Java 21+.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class BlockingExecutorsBenchmark {
+
+    private static final int REQUESTS = 10000;
+    private static final long LATENCY_MILLIS = 50L;
+
+    @Param({ BlockingExecutors.FIXED, BlockingExecutors.VIRTUAL })
+    public String kind;
+
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() {
+        executor = BlockingExecutors.create(kind, Runtime.getRuntime().availableProcessors() * 2, "Benchmark", false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void slowRequests() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            executor.execute(() -> {
+                try {
+                    Thread.sleep(LATENCY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            });
+        }
+        done.await();
+    }
+}
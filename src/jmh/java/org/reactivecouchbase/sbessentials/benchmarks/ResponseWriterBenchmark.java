@@ -0,0 +1,84 @@
+package org.reactivecouchbase.sbessentials.benchmarks;
+
+import akka.util.ByteString;
+import org.reactivecouchbase.sbessentials.libs.future.ResponseWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of writing a chunked body, copied into the buffer of a {@link ResponseWriter}, or copied into a new
+ * array per chunk like `ResponseBodyEmitter` used to. Run with `-prof gc` to compare allocations.
+ *
+ * Run with `./gradlew jmh`.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResponseWriterBenchmark {
+
+    private static final int BODY_SIZE = 1024 * 1024;
+    private static final int BUFFER_SIZE = 8192;
+
+    @Param({ "64", "1024", "16384" })
+    public int chunkSize;
+
+    private ByteString[] chunks;
+    private ServletOutputStream out;
+
+    @Setup
+    public void setup() {
+        chunks = new ByteString[BODY_SIZE / chunkSize];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = ByteString.fromArray(new byte[chunkSize]);
+        }
+        out = new DiscardingOutputStream();
+    }
+
+    @Benchmark
+    public void directWrite() throws IOException {
+        ResponseWriter writer = new ResponseWriter(out, BUFFER_SIZE);
+        for (ByteString chunk : chunks) {
+            writer.write(chunk);
+        }
+        writer.flush();
+    }
+
+    @Benchmark
+    public void arrayPerChunk() throws IOException {
+        for (ByteString chunk : chunks) {
+            out.write(chunk.toArray());
+            out.flush();
+        }
+    }
+
+    private static class DiscardingOutputStream extends ServletOutputStream {
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+        }
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.reactivecouchbase.sbessentials.benchmarks;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.StreamConverters;
+import akka.util.ByteString;
+import org.reactivecouchbase.sbessentials.libs.result.Results;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to read a file body, through the `FileIO` source of `sendFile` or through an `InputStream` like it used to.
+ *
+ * Run with `./gradlew jmh`.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SendFileBenchmark {
+
+    @Param({ "4096", "1048576", "67108864" })
+    public int size;
+
+    private ActorSystem system;
+    private Materializer materializer;
+    private File file;
+
+    @Setup
+    public void setup() throws Exception {
+        system = ActorSystem.create("SendFileBenchmark");
+        materializer = ActorMaterializer.create(system);
+        file = File.createTempFile("sendfile", ".bin");
+        file.deleteOnExit();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(size);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        system.terminate();
+        file.delete();
+    }
+
+    @Benchmark
+    public long fileChannel() throws Exception {
+        return drain(Results.Ok.sendFile(file).source);
+    }
+
+    @Benchmark
+    public long inputStream() throws Exception {
+        return drain(StreamConverters.fromInputStream(() -> new FileInputStream(file)));
+    }
+
+    private long drain(Source<ByteString, ?> source) throws Exception {
+        return source.runWith(Sink.fold(0L, (total, chunk) -> total + chunk.length()), materializer)
+                .toCompletableFuture().get();
+    }
+}
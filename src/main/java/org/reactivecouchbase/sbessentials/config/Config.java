@@ -2,9 +2,10 @@ package org.reactivecouchbase.sbessentials.config;
 
 import akka.actor.ActorSystem;
 import org.reactivecouchbase.common.Duration;
-import org.reactivecouchbase.concurrent.NamedExecutors;
+import org.reactivecouchbase.sbessentials.libs.future.BlockingExecutors;
 import org.reactivecouchbase.sbessentials.libs.future.FutureSupport;
 import org.reactivecouchbase.sbessentials.libs.json.JsonMessageConverter;
+import org.reactivecouchbase.sbessentials.libs.streams.StreamRuntime;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -15,9 +16,11 @@ import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
 import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+import scala.concurrent.duration.FiniteDuration;
 
 import java.util.List;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 @Configuration
@@ -32,15 +35,51 @@ public class Config {
     @Value("${app.config.async.globalec.threadcount}")
     public String threadCount;
 
+    @Value("${app.config.executors.kind}")
+    public String executorsKind;
+
+    @Value("${app.config.executors.tracepinning}")
+    public String executorsTracePinning;
+
+    @Value("${app.config.response.buffersize}")
+    public String responseBufferSize;
+
+    @Value("${app.config.response.flushdelay.millis}")
+    public String responseFlushDelayMillis;
+
+    @Value("${app.config.streams.dispatcher}")
+    public String streamsDispatcher;
+
+    @Value("${app.config.streams.buffer.initial}")
+    public String streamsInitialBuffer;
+
+    @Value("${app.config.streams.buffer.max}")
+    public String streamsMaxBuffer;
+
+    @Value("${app.config.streams.autofusing}")
+    public String streamsAutoFusing;
+
     @Bean
     public ActorSystem actorSystem() {
         return system;
     }
 
+    @Bean(destroyMethod = "shutdown")
+    public StreamRuntime streamRuntime() {
+        return new StreamRuntime(
+            system,
+            streamsDispatcher.trim(),
+            Integer.valueOf(streamsInitialBuffer),
+            Integer.valueOf(streamsMaxBuffer),
+            Boolean.valueOf(streamsAutoFusing),
+            FiniteDuration.create(Duration.parse(timeoutDuration.trim().toLowerCase()).toMillis(), TimeUnit.MILLISECONDS)
+        );
+    }
+
     @Bean
     public ExecutorService globalExecutor() {
         if (globalExecutorRef.get() == null) {
-            ExecutorService executorService = NamedExecutors.newFixedThreadPool(Integer.valueOf(threadCount), "GlobalExecutor");
+            ExecutorService executorService = BlockingExecutors.create(executorsKind, Integer.valueOf(threadCount), "GlobalExecutor", Boolean.valueOf(executorsTracePinning.trim()));
             globalExecutorRef.compareAndSet(null, executorService);
         }
         return globalExecutorRef.get();
@@ -70,7 +109,13 @@ public class Config {
 
             @Override
             public void addReturnValueHandlers(List<HandlerMethodReturnValueHandler> returnValueHandlers) {
-                returnValueHandlers.add(new FutureSupport.FutureReturnValueHandler(system));
+                FutureSupport.FutureReturnValueHandler futureHandler = new FutureSupport.FutureReturnValueHandler(
+                    streamRuntime(),
+                    Integer.valueOf(responseBufferSize),
+                    Long.valueOf(responseFlushDelayMillis)
+                );
+                returnValueHandlers.add(futureHandler);
+                returnValueHandlers.add(new FutureSupport.JsonSourceReturnValueHandler(futureHandler));
             }
         };
     }
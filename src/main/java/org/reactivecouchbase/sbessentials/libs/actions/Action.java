@@ -28,22 +28,31 @@ public interface Action {
         }
     }
 
+    /**
+     * Runs a block that does not block, on the servlet thread in {@link ExecutionMode#DIRECT} mode.
+     */
     default Future<Result> sync(Function<RequestContext, Result> block) {
+        if (Actions.executionMode == ExecutionMode.DIRECT) {
+            return async(Trampoline.INSTANCE, strict(block));
+        }
         return sync(Actions.EXECUTOR_SERVICE, block);
     }
 
     default Future<Result> sync(ExecutorService ec, Function<RequestContext, Result> block) {
-        return async(ec, req -> Future.async(() -> {
-            try {
-                return block.apply(req);
-            } catch (Exception e) {
-                Actions.logger.error("Sync action error", e);
-                return Actions.transformError(e, req);
-            }
-        }, ec));
+        return async(ec, strict(block));
+    }
+
+    /**
+     * Runs a block that may block on the actions executor, whatever the execution mode.
+     */
+    default Future<Result> blocking(Function<RequestContext, Result> block) {
+        return sync(Actions.EXECUTOR_SERVICE, block);
     }
 
     default Future<Result> async(Function<RequestContext, Future<Result>> block) {
+        if (Actions.executionMode == ExecutionMode.DIRECT) {
+            return async(Trampoline.INSTANCE, block);
+        }
         return async(Actions.EXECUTOR_SERVICE, block);
     }
 
@@ -54,17 +63,43 @@ public interface Action {
             HttpServletRequest request = servletRequestAttributes.getRequest();
             HttpServletResponse response = servletRequestAttributes.getResponse();
             RequestContext rc = new RequestContext(HashMap.empty(), Actions.webApplicationContext, request, response);
-            return Future.async(() -> innerInvoke(rc, block), ec).flatMap(e -> e, ec).recoverWith(t ->
+            // unwrapping and recovering are cheap, they run where the result is completed instead of hopping again
+            Future<Result> result = submit(rc, ctx -> ec == Trampoline.INSTANCE ? innerInvoke(ctx, block) : Future.async(() -> innerInvoke(ctx, block), ec).flatMap(e -> e, Trampoline.INSTANCE));
+            return result.recoverWith(t ->
                 Future.successful(Actions.transformError(t, rc))
-            , Actions.EXECUTOR_SERVICE);
+            , Trampoline.INSTANCE);
         } else {
             return Future.successful(Actions.transformError(new RuntimeException("RequestAttributes is not an instance of "), null));
         }
     }
 
+    /**
+     * Runs on the calling thread before the request is handed to the executor of `sync` or `async`, so an Action can
+     * reject it or start measuring it before it waits in the executor queue. The default submits it right away.
+     */
+    default Future<Result> submit(RequestContext request, Function<RequestContext, Future<Result>> submission) {
+        return submission.apply(request);
+    }
+
+    /**
+     * @return the synchronous block as an asynchronous one, running on the calling thread
+     */
+    static Function<RequestContext, Future<Result>> strict(Function<RequestContext, Result> block) {
+        return req -> {
+            try {
+                return Future.successful(block.apply(req));
+            } catch (Exception e) {
+                Actions.logger.error("Sync action error", e);
+                return Future.successful(Actions.transformError(e, req));
+            }
+        };
+    }
+
+    /**
+     * @return an {@link ActionPipeline} running the other Action inside this one
+     */
     default Action combine(Action other) {
-        Action that = this;
-        return (request, block) -> that.innerInvoke(request, r1 -> other.innerInvoke(r1, block));
+        return ActionPipeline.of(this, other);
     }
 
     default Action andThen(Action other) {
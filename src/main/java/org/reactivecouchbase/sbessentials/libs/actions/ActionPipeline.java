@@ -0,0 +1,199 @@
+package org.reactivecouchbase.sbessentials.libs.actions;
+
+import javaslang.control.Either;
+import org.reactivecouchbase.concurrent.Future;
+import org.reactivecouchbase.sbessentials.libs.result.Result;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A chain of Actions flattened into an array of stages, built once and run by a single invoker.
+ *
+ * Combining Actions with `andThen` produces a pipeline, and pipelines are flattened when combined, so a chain of
+ * any length is one array instead of nested closures each with its own error handling. Besides Actions, stages can
+ * be synchronous filters running before or after the rest of the chain: consecutive filters run in a plain loop,
+ * and a Future is only created once the result is known, or when an Action or the block returns one.
+ */
+public final class ActionPipeline implements Action {
+
+    private static final int BEFORE = 0;
+    private static final int AFTER = 1;
+    private static final int AROUND = 2;
+
+    private static final class Stage {
+
+        private final int kind;
+        private final Function<RequestContext, Either<Result, RequestContext>> before;
+        private final BiFunction<RequestContext, Result, Result> after;
+        private final Action around;
+
+        private Stage(int kind, Function<RequestContext, Either<Result, RequestContext>> before, BiFunction<RequestContext, Result, Result> after, Action around) {
+            this.kind = kind;
+            this.before = before;
+            this.after = after;
+            this.around = around;
+        }
+    }
+
+    private final Stage[] stages;
+    private final boolean hasAfters;
+
+    private ActionPipeline(List<Stage> stages) {
+        this.stages = stages.toArray(new Stage[stages.size()]);
+        boolean afters = false;
+        for (Stage stage : this.stages) {
+            afters = afters || stage.kind == AFTER;
+        }
+        this.hasAfters = afters;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a pipeline running the Actions one inside the other, nested pipelines being flattened
+     */
+    public static ActionPipeline of(Action... actions) {
+        Builder builder = newBuilder();
+        for (Action action : actions) {
+            builder.andThen(action);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return a synchronous filter, either ending the request with a Result (left) or going on with a context (right)
+     */
+    public static ActionPipeline before(Function<RequestContext, Either<Result, RequestContext>> filter) {
+        return newBuilder().before(filter).build();
+    }
+
+    /**
+     * @return a synchronous filter transforming the Results of the rest of the chain
+     */
+    public static ActionPipeline after(BiFunction<RequestContext, Result, Result> filter) {
+        return newBuilder().after(filter).build();
+    }
+
+    public int size() {
+        return stages.length;
+    }
+
+    @Override
+    public Future<Result> invoke(RequestContext request, Function<RequestContext, Future<Result>> block) {
+        return run(0, request, block);
+    }
+
+    @Override
+    public Future<Result> innerInvoke(RequestContext request, Function<RequestContext, Future<Result>> block) {
+        // errors are already handled by the pipeline
+        return run(0, request, block);
+    }
+
+    @Override
+    public Action combine(Action other) {
+        return of(this, other);
+    }
+
+    @Override
+    public Future<Result> submit(RequestContext request, Function<RequestContext, Future<Result>> submission) {
+        return submit(0, request, submission);
+    }
+
+    private Future<Result> submit(int from, RequestContext request, Function<RequestContext, Future<Result>> submission) {
+        for (int index = from; index < stages.length; index++) {
+            if (stages[index].kind == AROUND) {
+                int following = index + 1;
+                return stages[index].around.submit(request, ctx -> submit(following, ctx, submission));
+            }
+        }
+        return submission.apply(request);
+    }
+
+    private Future<Result> run(int from, RequestContext request, Function<RequestContext, Future<Result>> block) {
+        // the context each stage has been called with, only needed by the after filters
+        RequestContext[] contexts = hasAfters ? new RequestContext[stages.length] : null;
+        RequestContext current = request;
+        int index = from;
+        try {
+            for (; index < stages.length; index++) {
+                Stage stage = stages[index];
+                if (contexts != null) {
+                    contexts[index] = current;
+                }
+                if (stage.kind == BEFORE) {
+                    Either<Result, RequestContext> next = stage.before.apply(current);
+                    if (next.isLeft()) {
+                        return Future.successful(afterSync(from, index, contexts, next.getLeft()));
+                    }
+                    current = next.get();
+                } else if (stage.kind == AROUND) {
+                    int following = index + 1;
+                    return afterAsync(from, index, contexts, stage.around.invoke(current, ctx -> run(following, ctx, block)));
+                }
+            }
+            return afterAsync(from, index - 1, contexts, block.apply(current));
+        } catch (Exception e) {
+            Actions.logger.error("Action pipeline error", e);
+            return Future.successful(Actions.transformError(e, current));
+        }
+    }
+
+    private Result afterSync(int from, int to, RequestContext[] contexts, Result result) {
+        Result current = result;
+        for (int i = to; contexts != null && i >= from; i--) {
+            if (stages[i].kind == AFTER) {
+                current = stages[i].after.apply(contexts[i], current);
+            }
+        }
+        return current;
+    }
+
+    private Future<Result> afterAsync(int from, int to, RequestContext[] contexts, Future<Result> result) {
+        if (contexts == null) {
+            return result;
+        }
+        for (int i = from; i <= to; i++) {
+            if (stages[i].kind == AFTER) {
+                return result.map(r -> afterSync(from, to, contexts, r));
+            }
+        }
+        return result;
+    }
+
+    public static final class Builder {
+        private final List<Stage> stages = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        public Builder before(Function<RequestContext, Either<Result, RequestContext>> val) {
+            stages.add(new Stage(BEFORE, val, null, null));
+            return this;
+        }
+
+        public Builder after(BiFunction<RequestContext, Result, Result> val) {
+            stages.add(new Stage(AFTER, null, val, null));
+            return this;
+        }
+
+        public Builder andThen(Action val) {
+            if (val instanceof ActionPipeline) {
+                for (Stage stage : ((ActionPipeline) val).stages) {
+                    stages.add(stage);
+                }
+            } else if (val != null) {
+                stages.add(new Stage(AROUND, null, null, val));
+            }
+            return this;
+        }
+
+        public ActionPipeline build() {
+            return new ActionPipeline(stages);
+        }
+    }
+}
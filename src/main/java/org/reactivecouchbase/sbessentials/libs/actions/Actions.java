@@ -1,15 +1,20 @@
 package org.reactivecouchbase.sbessentials.libs.actions;
 
+import akka.actor.ActorSystem;
 import org.reactivecouchbase.concurrent.Future;
 import org.reactivecouchbase.concurrent.NamedExecutors;
 import org.reactivecouchbase.concurrent.Promise;
 import org.reactivecouchbase.json.Json;
 import org.reactivecouchbase.json.mapping.ThrowableWriter;
+import org.reactivecouchbase.sbessentials.libs.form.Multipart;
+import org.reactivecouchbase.sbessentials.libs.future.BlockingExecutors;
 import org.reactivecouchbase.sbessentials.libs.result.Result;
 import org.reactivecouchbase.sbessentials.libs.result.Results;
+import org.reactivecouchbase.sbessentials.libs.streams.StreamRuntime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.context.WebApplicationContext;
 
@@ -28,8 +33,61 @@ public class Actions {
         Actions.webApplicationContext = webApplicationContext;
     }
 
-    static final ExecutorService EXECUTOR_SERVICE =
-            NamedExecutors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2, "ActionsExecutor");
+    static long maxBodySize = 10L * 1024L * 1024L;
+
+    @Value("${app.config.request.maxbodysize}")
+    public void setMaxBodySize(String maxBodySize) {
+        Actions.maxBodySize = Long.valueOf(maxBodySize.trim());
+    }
+
+    static Multipart.Settings multipartSettings = Multipart.Settings.defaults();
+
+    @Autowired
+    public void setMultipartSettings(
+            @Value("${app.config.multipart.memorythreshold}") String memoryThreshold,
+            @Value("${app.config.multipart.maxpartsize}") String maxPartSize,
+            @Value("${app.config.multipart.maxtotalsize}") String maxTotalSize) {
+        Actions.multipartSettings = new Multipart.Settings(
+            Integer.valueOf(memoryThreshold.trim()),
+            Long.valueOf(maxPartSize.trim()),
+            Long.valueOf(maxTotalSize.trim()),
+            multipartSettings.maxHeadersSize
+        );
+    }
+
+    static StreamRuntime streamRuntime;
+
+    @Autowired
+    public void setStreamRuntime(StreamRuntime streamRuntime) {
+        Actions.streamRuntime = streamRuntime;
+    }
+
+    static ActorSystem actorSystem;
+
+    @Autowired
+    public void setActorSystem(ActorSystem actorSystem) {
+        Actions.actorSystem = actorSystem;
+    }
+
+    static ExecutionMode executionMode = ExecutionMode.POOLED;
+
+    @Value("${app.config.actions.execution}")
+    public void setExecutionMode(String executionMode) {
+        Actions.executionMode = ExecutionMode.valueOf(executionMode.trim().toUpperCase());
+    }
+
+    private static final int EXECUTOR_THREADS = Runtime.getRuntime().availableProcessors() * 2;
+
+    static volatile ExecutorService EXECUTOR_SERVICE = NamedExecutors.newFixedThreadPool(EXECUTOR_THREADS, "ActionsExecutor");
+
+    @Autowired
+    public void setExecutorKind(
+            @Value("${app.config.executors.kind}") String kind,
+            @Value("${app.config.executors.tracepinning}") String tracePinning) {
+        ExecutorService previous = Actions.EXECUTOR_SERVICE;
+        Actions.EXECUTOR_SERVICE = BlockingExecutors.create(kind, EXECUTOR_THREADS, "ActionsExecutor", Boolean.valueOf(tracePinning.trim()));
+        previous.shutdown();
+    }
 
     // TODO : add global filters
     static final Action EMPTY = (request, block) -> {
@@ -49,6 +107,10 @@ public class Actions {
         return EMPTY.sync(ec, block);
     }
 
+    public static Future<Result> blocking(Function<RequestContext, Result> block) {
+        return EMPTY.blocking(block);
+    }
+
     public static Future<Result> async(Function<RequestContext, Future<Result>> block) {
         return EMPTY.async(block);
     }
@@ -58,6 +120,11 @@ public class Actions {
     }
 
     public static Result transformError(Throwable t, RequestContext request) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof EntityTooLargeException) {
+                return Results.EntityTooLarge.json(Json.obj().with("error", cause.getMessage()));
+            }
+        }
         if (request != null) {
             request.header("Accept").foreach(v -> {
                 logger.info("Accept: " + v);
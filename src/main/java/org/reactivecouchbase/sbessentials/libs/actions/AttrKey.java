@@ -0,0 +1,37 @@
+package org.reactivecouchbase.sbessentials.libs.actions;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Typed key of a {@link RequestContext} attribute.
+ *
+ * Each key gets its own slot in the attributes of the contexts, so keys are meant to be created once,
+ * as constants, and not per request.
+ */
+public final class AttrKey<T> {
+
+    private static final AtomicInteger counter = new AtomicInteger(0);
+
+    final int id;
+    public final String name;
+    public final Class<T> type;
+
+    private AttrKey(int id, String name, Class<T> type) {
+        this.id = id;
+        this.name = name;
+        this.type = type;
+    }
+
+    public static <T> AttrKey<T> create(String name, Class<T> type) {
+        return new AttrKey<>(counter.getAndIncrement(), name, type);
+    }
+
+    static int count() {
+        return counter.get();
+    }
+
+    @Override
+    public String toString() {
+        return "AttrKey(" + name + ")";
+    }
+}
@@ -0,0 +1,229 @@
+package org.reactivecouchbase.sbessentials.libs.actions;
+
+import akka.japi.Pair;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.SinkQueueWithCancel;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.reactivecouchbase.concurrent.Future;
+import org.reactivecouchbase.concurrent.Promise;
+import org.reactivecouchbase.functional.Option;
+import org.reactivecouchbase.sbessentials.libs.json.JsonWriter;
+import org.reactivecouchbase.sbessentials.libs.result.Result;
+import org.reactivecouchbase.sbessentials.libs.result.ServerSentEvents;
+import org.springframework.http.HttpStatus;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Action memoizing the Results of its block in memory.
+ *
+ * Results are keyed by a function of the request context. `200 OK` results without cookies nor file body
+ * are cached with their body buffered as a ByteString. Bodies larger than an entry are streamed to the client
+ * without being cached, and event streams are never buffered.
+ * Entries expire after a TTL and the least recently used ones are evicted once the cached bodies
+ * exceed the size limit. On a miss, only one computation per key runs at a time, concurrent requests
+ * for the same key wait for it.
+ */
+public class Cached implements Action {
+
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private final Function<RequestContext, String> key;
+    private final long maxEntryBytes;
+    private final Cache<String, Result> cache;
+    private final ConcurrentHashMap<String, Future<Option<Result>>> computations = new ConcurrentHashMap<>();
+
+    private Cached(Builder builder) {
+        this.key = builder.key;
+        this.maxEntryBytes = builder.maxEntryBytes;
+        this.cache = CacheBuilder.newBuilder()
+                .expireAfterWrite(builder.ttl, builder.ttlUnit)
+                .maximumWeight(builder.maxBytes)
+                .weigher((String k, Result result) -> k.length() + ENTRY_OVERHEAD + result.contentLength().getOrElse(0L).intValue())
+                .build();
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Key requests on their URI and query string.
+     */
+    public static Function<RequestContext, String> byUri() {
+        return ctx -> {
+            HttpServletRequest request = ctx.getRequest();
+            return request.getQueryString() == null ? request.getRequestURI() : request.getRequestURI() + "?" + request.getQueryString();
+        };
+    }
+
+    /**
+     * Key requests on their URI, query string and the values of the given headers.
+     */
+    public static Function<RequestContext, String> byUriAndHeaders(String... headers) {
+        Function<RequestContext, String> uri = byUri();
+        return ctx -> {
+            StringBuilder builder = new StringBuilder(uri.apply(ctx));
+            for (String header : headers) {
+                builder.append('\n').append(header).append(':').append(ctx.header(header).getOrElse(""));
+            }
+            return builder.toString();
+        };
+    }
+
+    public void invalidate(String key) {
+        cache.invalidate(key);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public Future<Result> invoke(RequestContext request, Function<RequestContext, Future<Result>> block) {
+        String k = key.apply(request);
+        Result cached = cache.getIfPresent(k);
+        if (cached != null) {
+            return Future.successful(cached);
+        }
+        Promise<Option<Result>> computation = Promise.create();
+        Future<Option<Result>> running = computations.putIfAbsent(k, computation.future());
+        if (running != null) {
+            // another request is computing this key, use its result if it has been cached
+            return running.flatMap(maybeResult -> maybeResult.fold(() -> block.apply(request), Future::successful));
+        }
+        Promise<Result> promise = Promise.create();
+        Future<Result> computed;
+        try {
+            computed = block.apply(request);
+        } catch (RuntimeException e) {
+            // do not leave the requests waiting on this key hanging
+            complete(k, computation, Option.none());
+            throw e;
+        }
+        computed.andThen(ttry -> {
+            for (Result result : ttry.asSuccess()) {
+                if (isCacheable(result)) {
+                    buffer(result).andThen(buffered -> {
+                        for (Result strict : buffered.asSuccess()) {
+                            if (strict.strictBody.isDefined()) {
+                                cache.put(k, strict);
+                                complete(k, computation, Option.some(strict));
+                            } else {
+                                complete(k, computation, Option.none());
+                            }
+                            promise.trySuccess(strict);
+                        }
+                        for (Throwable t : buffered.asFailure()) {
+                            complete(k, computation, Option.none());
+                            promise.tryFailure(t);
+                        }
+                    });
+                } else {
+                    complete(k, computation, Option.none());
+                    promise.trySuccess(result);
+                }
+            }
+            for (Throwable t : ttry.asFailure()) {
+                complete(k, computation, Option.none());
+                promise.tryFailure(t);
+            }
+        });
+        return promise.future();
+    }
+
+    private void complete(String k, Promise<Option<Result>> computation, Option<Result> result) {
+        computations.remove(k, computation.future());
+        computation.trySuccess(result);
+    }
+
+    private boolean isCacheable(Result result) {
+        // event streams never end, there is nothing to cache
+        return result.status == HttpStatus.OK.value() && result.cookies.isEmpty() && result.file.isEmpty()
+                && !ServerSentEvents.CONTENT_TYPE.equals(result.contentType) && !JsonWriter.NDJSON.equals(result.contentType);
+    }
+
+    /**
+     * @return the result with its body in memory, or, when the body exceeds the size of an entry, the result
+     * streaming the bytes already read followed by the rest of the body
+     */
+    private Future<Result> buffer(Result result) {
+        if (result.strictBody.isDefined()) {
+            return Future.successful(result);
+        }
+        Pair<?, SinkQueueWithCancel<ByteString>> run = Actions.streamRuntime.instrument(result.source)
+                .toMat(Sink.<ByteString>queue(), Keep.both())
+                .run(Actions.streamRuntime.materializer());
+        result.materializedValue.trySuccess(run.first());
+        Promise<Result> promise = Promise.create();
+        read(result, run.second(), ByteString.empty(), promise);
+        return promise.future();
+    }
+
+    private void read(Result result, SinkQueueWithCancel<ByteString> queue, ByteString body, Promise<Result> promise) {
+        queue.pull().whenComplete((chunk, error) -> {
+            if (error != null) {
+                promise.tryFailure(error);
+            } else if (!chunk.isPresent()) {
+                promise.trySuccess(Result.copy(result).withStrictBody(body.compact()).build());
+            } else if (body.length() + chunk.get().length() > maxEntryBytes) {
+                Source<ByteString, ?> rest = Source.unfoldAsync(queue, q -> q.pull().thenApply(next -> next.map(bytes -> Pair.create(q, bytes))));
+                promise.trySuccess(Result.copy(result).withSource(
+                    Source.single(body.concat(chunk.get())).concat(rest).watchTermination((mat, done) -> {
+                        // the client went away, stop the body
+                        done.whenComplete((d, e) -> queue.cancel());
+                        return mat;
+                    })
+                ).build());
+            } else {
+                read(result, queue, body.concat(chunk.get()), promise);
+            }
+        });
+    }
+
+    public static final class Builder {
+        private Function<RequestContext, String> key = byUri();
+        private long ttl = 60L;
+        private TimeUnit ttlUnit = TimeUnit.SECONDS;
+        private long maxBytes = 32L * 1024L * 1024L;
+        private long maxEntryBytes = 1024L * 1024L;
+
+        private Builder() {
+        }
+
+        public Builder withKey(Function<RequestContext, String> val) {
+            key = val;
+            return this;
+        }
+
+        public Builder withTtl(long val, TimeUnit unit) {
+            ttl = val;
+            ttlUnit = unit;
+            return this;
+        }
+
+        public Builder withMaxBytes(long val) {
+            maxBytes = val;
+            return this;
+        }
+
+        /**
+         * Bodies larger than this are not cached, they are streamed to the client once this many bytes have been read.
+         */
+        public Builder withMaxEntryBytes(long val) {
+            maxEntryBytes = val;
+            return this;
+        }
+
+        public Cached build() {
+            return new Cached(this);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.reactivecouchbase.sbessentials.libs.actions;
+
+import org.reactivecouchbase.concurrent.Future;
+import org.reactivecouchbase.sbessentials.libs.result.Compression;
+import org.reactivecouchbase.sbessentials.libs.result.Result;
+
+import java.util.function.Function;
+import java.util.zip.Deflater;
+
+/**
+ * Action encoding the Results of the block with gzip or deflate, according to the `Accept-Encoding` header of the request.
+ */
+public class Compressed implements Action {
+
+    public static final int DEFAULT_MIN_SIZE = 1024;
+    public static final long DEFAULT_MAX_CACHED_BYTES = 16L * 1024L * 1024L;
+
+    private final Compression compression;
+
+    public Compressed() {
+        this(new Compression(DEFAULT_MIN_SIZE, Deflater.DEFAULT_COMPRESSION, DEFAULT_MAX_CACHED_BYTES));
+    }
+
+    public Compressed(Compression compression) {
+        this.compression = compression;
+    }
+
+    @Override
+    public Future<Result> invoke(RequestContext request, Function<RequestContext, Future<Result>> block) {
+        return block.apply(request).map(result -> compression.compress(result, request.acceptEncoding(), request.refusedEncodings()));
+    }
+}
@@ -0,0 +1,211 @@
+package org.reactivecouchbase.sbessentials.libs.actions;
+
+import org.reactivecouchbase.concurrent.Future;
+import org.reactivecouchbase.json.Json;
+import org.reactivecouchbase.sbessentials.libs.result.Result;
+import org.reactivecouchbase.sbessentials.libs.result.Results;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Action bounding how many requests of its block run at the same time, answering `503 Service Unavailable`
+ * right away over the limit.
+ *
+ * The limit adapts to the latency of the block, the way TCP Vegas adapts a congestion window. The lowest latency
+ * observed estimates the latency without queueing, and the number of requests queued is estimated from how much
+ * slower the last request was. The limit grows while that queue is short and shrinks when it gets longer, so the
+ * block runs near its best throughput without requests piling up. Failures and `5xx` results shrink the limit
+ * multiplicatively.
+ *
+ * When the block is run by `sync` or `async`, the permit is taken before the request is handed to the executor, so
+ * requests over the limit do not wait in the executor queue, and the measured latency includes the time spent there.
+ */
+public class ConcurrencyLimited implements Action {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int alpha;
+    private final int beta;
+    private final long retryAfter;
+    private final long minLatencyTtl;
+
+    private final AttrKey<Boolean> admitted = AttrKey.create("concurrency-limited", Boolean.class);
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+    private volatile int limit;
+
+    // guarded by this
+    private long minLatency = Long.MAX_VALUE;
+    private long minLatencyReset;
+
+    private ConcurrencyLimited(Builder builder) {
+        this.minLimit = builder.minLimit;
+        this.maxLimit = builder.maxLimit;
+        this.alpha = builder.alpha;
+        this.beta = builder.beta;
+        this.retryAfter = builder.retryAfter;
+        this.minLatencyTtl = builder.minLatencyTtlUnit.toNanos(builder.minLatencyTtl);
+        this.limit = builder.initialLimit;
+        this.minLatencyReset = System.nanoTime() + minLatencyTtl;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public Future<Result> submit(RequestContext request, Function<RequestContext, Future<Result>> submission) {
+        return limit(request, ctx -> submission.apply(ctx.setAttr(admitted, Boolean.TRUE)));
+    }
+
+    @Override
+    public Future<Result> invoke(RequestContext request, Function<RequestContext, Future<Result>> block) {
+        if (request.getAttr(admitted).isDefined()) {
+            // the permit has been taken before the executor hop
+            return block.apply(request);
+        }
+        return limit(request, block);
+    }
+
+    private Future<Result> limit(RequestContext request, Function<RequestContext, Future<Result>> block) {
+        if (!acquire()) {
+            Actions.logger.debug("Concurrency limit of {} reached for {}", limit, request.getRequest().getRequestURI());
+            return Future.successful(Results.ServiceUnavailable.json(Json.obj().with("error", "Service unavailable"))
+                    .withHeader("Retry-After", String.valueOf(retryAfter)));
+        }
+        long start = System.nanoTime();
+        int concurrency = inFlight.get();
+        Future<Result> result;
+        try {
+            result = block.apply(request);
+        } catch (RuntimeException e) {
+            inFlight.decrementAndGet();
+            onDropped();
+            throw e;
+        }
+        return result.andThen(ttry -> {
+            inFlight.decrementAndGet();
+            boolean failed = ttry.isFailure();
+            for (Result r : ttry.asSuccess()) {
+                failed = r.status >= 500;
+            }
+            if (failed) {
+                onDropped();
+            } else {
+                onSample(System.nanoTime() - start, concurrency);
+            }
+        });
+    }
+
+    private boolean acquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private synchronized void onSample(long latency, int concurrency) {
+        long now = System.nanoTime();
+        if (now - minLatencyReset > 0L) {
+            // forget the old minimum from time to time, so the limit follows lasting changes of the latency
+            minLatency = latency;
+            minLatencyReset = now + minLatencyTtl;
+        } else if (latency < minLatency) {
+            minLatency = latency;
+        }
+        int current = limit;
+        // requests that only ran on a lightly loaded block tell nothing about the limit
+        if (concurrency * 2 < current) {
+            return;
+        }
+        double queue = current * (1.0 - (double) minLatency / (double) Math.max(latency, 1L));
+        int next = current;
+        if (queue < alpha) {
+            next = current + 1;
+        } else if (queue > beta) {
+            next = current - 1;
+        }
+        limit = Math.max(minLimit, Math.min(maxLimit, next));
+    }
+
+    private synchronized void onDropped() {
+        limit = Math.max(minLimit, (int) (limit * 0.9));
+    }
+
+    public static final class Builder {
+        private int initialLimit = 20;
+        private int minLimit = 1;
+        private int maxLimit = 1000;
+        private int alpha = 3;
+        private int beta = 6;
+        private long retryAfter = 1L;
+        private long minLatencyTtl = 30L;
+        private TimeUnit minLatencyTtlUnit = TimeUnit.SECONDS;
+
+        private Builder() {
+        }
+
+        public Builder withInitialLimit(int val) {
+            initialLimit = val;
+            return this;
+        }
+
+        public Builder withMinLimit(int val) {
+            minLimit = val;
+            return this;
+        }
+
+        public Builder withMaxLimit(int val) {
+            maxLimit = val;
+            return this;
+        }
+
+        /**
+         * Bounds of the estimated queue: the limit grows below `alpha` queued requests and shrinks above `beta`.
+         */
+        public Builder withQueueBounds(int alpha, int beta) {
+            this.alpha = alpha;
+            this.beta = beta;
+            return this;
+        }
+
+        /**
+         * Value of the `Retry-After` header of rejected requests, in seconds.
+         */
+        public Builder withRetryAfter(long val) {
+            retryAfter = val;
+            return this;
+        }
+
+        /**
+         * How long the lowest observed latency is trusted before being measured again.
+         */
+        public Builder withMinLatencyTtl(long val, TimeUnit unit) {
+            minLatencyTtl = val;
+            minLatencyTtlUnit = unit;
+            return this;
+        }
+
+        public ConcurrencyLimited build() {
+            if (minLimit <= 0 || minLimit > maxLimit || alpha > beta) {
+                throw new IllegalArgumentException("Invalid concurrency limits");
+            }
+            initialLimit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+            return new ConcurrencyLimited(this);
+        }
+    }
+}
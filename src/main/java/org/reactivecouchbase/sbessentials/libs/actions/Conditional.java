@@ -0,0 +1,125 @@
+package org.reactivecouchbase.sbessentials.libs.actions;
+
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import javaslang.collection.List;
+import org.reactivecouchbase.concurrent.Future;
+import org.reactivecouchbase.functional.Option;
+import org.reactivecouchbase.sbessentials.libs.result.BodyHash;
+import org.reactivecouchbase.sbessentials.libs.result.Result;
+import org.reactivecouchbase.sbessentials.libs.result.Results;
+import org.springframework.http.HttpStatus;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.File;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.function.Function;
+
+/**
+ * Action handling conditional GET requests.
+ *
+ * Results of the block get an ETag: a strong one hashed from in-memory bodies, a weak one built from the file
+ * metadata for file bodies. When `If-None-Match` or `If-Modified-Since` tell that the client already has the
+ * representation, a `304 Not Modified` is returned instead and the body is never materialized.
+ *
+ * When combined with {@link Compressed}, use `new Conditional().andThen(new Compressed())` so the ETag
+ * identifies the encoded representation.
+ */
+public class Conditional implements Action {
+
+    @Override
+    public Future<Result> invoke(RequestContext request, Function<RequestContext, Future<Result>> block) {
+        return block.apply(request).map(result -> evaluate(result, request));
+    }
+
+    public static Result evaluate(Result result, RequestContext request) {
+        List<String> ifNoneMatch = request.ifNoneMatch();
+        return evaluate(result, request.getRequest(), ifNoneMatch.isEmpty() ? Option.none() : Option.some(ifNoneMatch));
+    }
+
+    public static Result evaluate(Result result, HttpServletRequest request) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        return evaluate(result, request, ifNoneMatch == null ? Option.none() : Option.some(List.of(ifNoneMatch.split(",")).map(String::trim)));
+    }
+
+    private static Result evaluate(Result result, HttpServletRequest request, Option<List<String>> ifNoneMatch) {
+        String method = request.getMethod();
+        if (result.status != HttpStatus.OK.value() || !("GET".equalsIgnoreCase(method) || "HEAD".equalsIgnoreCase(method))) {
+            return result;
+        }
+        Option<String> etag = etag(result);
+        Result tagged = result;
+        if (etag.isDefined() && !result.headers.containsKey("ETag")) {
+            tagged = result.withHeader("ETag", etag.get());
+        }
+        if (ifNoneMatch.isDefined()) {
+            return etag.isDefined() && matches(ifNoneMatch.get(), etag.get()) ? notModified(tagged) : tagged;
+        }
+        long ifModifiedSince = dateHeader(request, "If-Modified-Since");
+        long lastModified = lastModified(result);
+        if (ifModifiedSince >= 0 && lastModified >= 0 && lastModified / 1000 <= ifModifiedSince / 1000) {
+            return notModified(tagged);
+        }
+        return tagged;
+    }
+
+    /**
+     * @return the ETag of the result, computed from its body if it is not already set
+     */
+    public static Option<String> etag(Result result) {
+        if (result.headers.containsKey("ETag")) {
+            return Option.some(result.headers.get("ETag").get().head());
+        }
+        for (ByteString body : result.strictBody) {
+            return Option.some("\"" + Long.toHexString(BodyHash.of(body)) + "\"");
+        }
+        for (File file : result.file) {
+            return Option.some("W/\"" + Long.toHexString(file.length()) + "-" + Long.toHexString(file.lastModified()) + "\"");
+        }
+        return Option.none();
+    }
+
+    private static boolean matches(List<String> ifNoneMatch, String etag) {
+        String opaque = weak(etag);
+        for (String candidate : ifNoneMatch) {
+            if (candidate.equals("*") || weak(candidate).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String weak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private static long lastModified(Result result) {
+        for (File file : result.file) {
+            return file.lastModified();
+        }
+        return result.headers.get("Last-Modified").map(dates -> {
+            try {
+                return ZonedDateTime.parse(dates.head(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            } catch (Exception e) {
+                return -1L;
+            }
+        }).getOrElse(-1L);
+    }
+
+    private static long dateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1L;
+        }
+    }
+
+    private static Result notModified(Result result) {
+        return Result.copy(result)
+                .withStatus(Results.NotModified.status)
+                .withSource(Source.empty())
+                .withHeaders(result.headers.remove("Content-Length"))
+                .build();
+    }
+}
@@ -0,0 +1,61 @@
+package org.reactivecouchbase.sbessentials.libs.actions;
+
+import akka.stream.KillSwitches;
+import akka.stream.SharedKillSwitch;
+import akka.stream.javadsl.Source;
+import org.reactivecouchbase.functional.Option;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Point in time by which a request must have produced its Result, set by the {@link Timeout} Action.
+ *
+ * Streams bound to the deadline, like the request body or the calls made with `WS`, fail with a
+ * `TimeoutException` when it expires, which releases their connections, even if they were materialized
+ * before. A deadline nested in another one also expires with it.
+ */
+public final class Deadline {
+
+    static final AttrKey<Deadline> KEY = AttrKey.create("deadline", Deadline.class);
+
+    private final long expiresAt;
+    private final Option<Deadline> parent;
+    private final SharedKillSwitch killSwitch = KillSwitches.shared("deadline");
+    private final AtomicBoolean expired = new AtomicBoolean(false);
+
+    Deadline(long timeout, TimeUnit unit, Option<Deadline> parent) {
+        long expiresAt = System.nanoTime() + unit.toNanos(timeout);
+        for (Deadline p : parent) {
+            expiresAt = Math.min(expiresAt, p.expiresAt);
+        }
+        this.expiresAt = expiresAt;
+        this.parent = parent;
+    }
+
+    public long remaining(TimeUnit unit) {
+        return unit.convert(Math.max(0L, expiresAt - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isExpired() {
+        return expired.get() || parent.map(Deadline::isExpired).getOrElse(false) || expiresAt - System.nanoTime() <= 0L;
+    }
+
+    /**
+     * @return the same source, failing with a `TimeoutException` once the deadline expires
+     */
+    public <T, M> Source<T, M> bind(Source<T, M> source) {
+        Source<T, M> bound = source.via(killSwitch.flow());
+        for (Deadline p : parent) {
+            return p.bind(bound);
+        }
+        return bound;
+    }
+
+    void expire() {
+        if (expired.compareAndSet(false, true)) {
+            killSwitch.abort(new TimeoutException("Request deadline expired"));
+        }
+    }
+}
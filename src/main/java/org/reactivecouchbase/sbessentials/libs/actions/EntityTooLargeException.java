@@ -0,0 +1,14 @@
+package org.reactivecouchbase.sbessentials.libs.actions;
+
+/**
+ * Raised when a request body exceeds the allowed size, answered with `413 Request Entity Too Large`.
+ */
+public class EntityTooLargeException extends RuntimeException {
+
+    public final long maxSize;
+
+    public EntityTooLargeException(long maxSize) {
+        super("Request body is larger than " + maxSize + " bytes");
+        this.maxSize = maxSize;
+    }
+}
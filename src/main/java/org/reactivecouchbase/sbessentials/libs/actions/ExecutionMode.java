@@ -0,0 +1,19 @@
+package org.reactivecouchbase.sbessentials.libs.actions;
+
+/**
+ * Where the blocks of `Action.sync` and `Action.async` run, set by `app.config.actions.execution`.
+ */
+public enum ExecutionMode {
+
+    /**
+     * Every block runs on the actions executor.
+     */
+    POOLED,
+
+    /**
+     * Blocks run on the servlet thread and their callbacks on the thread completing them, through a
+     * {@link Trampoline}. Only blocks passed to `blocking` or given an executor go to a pool,
+     * so blocks passed to `sync` and `async` must not block.
+     */
+    DIRECT
+}
@@ -0,0 +1,149 @@
+package org.reactivecouchbase.sbessentials.libs.actions;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.reactivecouchbase.concurrent.Future;
+import org.reactivecouchbase.json.Json;
+import org.reactivecouchbase.sbessentials.libs.result.Result;
+import org.reactivecouchbase.sbessentials.libs.result.Results;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Action limiting the rate of requests per key, answering `429 Too Many Requests` over the limit.
+ *
+ * Each key has its own token bucket allowing `limit` requests per period, in bursts of up to `limit` requests.
+ * A bucket is a single atomic timestamp (the time at which it will be full again) updated with a CAS, so
+ * requests of different keys never contend and requests of the same key never lock. Buckets live in a
+ * segmented map bounded in size, and are dropped once they have been idle for a period.
+ *
+ * Results carry `RateLimit-Limit`, `RateLimit-Remaining` and `RateLimit-Reset` headers, rejections a
+ * `Retry-After` header as well.
+ */
+public class RateLimited implements Action {
+
+    private final Function<RequestContext, String> key;
+    private final long limit;
+    private final long period;
+    private final long interval;
+    private final Cache<String, AtomicLong> buckets;
+
+    private RateLimited(Builder builder) {
+        this.key = builder.key;
+        this.limit = builder.limit;
+        this.period = builder.periodUnit.toNanos(builder.period);
+        this.interval = Math.max(1L, period / limit);
+        this.buckets = CacheBuilder.newBuilder()
+                .concurrencyLevel(builder.concurrencyLevel)
+                .maximumSize(builder.maxKeys)
+                // an idle bucket is full again, forgetting it does not change anything
+                .expireAfterAccess(period, TimeUnit.NANOSECONDS)
+                .build();
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Key requests on the address of the client.
+     */
+    public static Function<RequestContext, String> byRemoteAddress() {
+        return ctx -> ctx.getRequest().getRemoteAddr();
+    }
+
+    /**
+     * Key requests on the value of a header, like an API key. Requests without it share the same bucket.
+     */
+    public static Function<RequestContext, String> byHeader(String name) {
+        return ctx -> ctx.header(name).getOrElse("");
+    }
+
+    @Override
+    public Future<Result> invoke(RequestContext request, Function<RequestContext, Future<Result>> block) {
+        AtomicLong bucket = bucket(key.apply(request));
+        long now = System.nanoTime();
+        while (true) {
+            long full = bucket.get();
+            // time at which the bucket would be full again with this request counted
+            long next = Math.max(full - now, 0L) + now + interval;
+            long wait = next - now - period;
+            if (wait > 0L) {
+                Actions.logger.debug("Rate limit reached for {}", request.getRequest().getRequestURI());
+                return Future.successful(withHeaders(Results.TooManyRequests.json(Json.obj().with("error", "Too many requests")), 0L, next - now)
+                        .withHeader("Retry-After", String.valueOf(seconds(wait))));
+            }
+            if (bucket.compareAndSet(full, next)) {
+                long remaining = (period - (next - now)) / interval;
+                return block.apply(request).map(result -> withHeaders(result, remaining, next - now));
+            }
+        }
+    }
+
+    private AtomicLong bucket(String k) {
+        AtomicLong bucket = buckets.getIfPresent(k);
+        if (bucket != null) {
+            return bucket;
+        }
+        try {
+            return buckets.get(k, () -> new AtomicLong(System.nanoTime()));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private Result withHeaders(Result result, long remaining, long reset) {
+        return result
+                .withHeader("RateLimit-Limit", String.valueOf(limit))
+                .withHeader("RateLimit-Remaining", String.valueOf(remaining))
+                .withHeader("RateLimit-Reset", String.valueOf(seconds(reset)));
+    }
+
+    private static long seconds(long nanos) {
+        return (nanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+    }
+
+    public static final class Builder {
+        private Function<RequestContext, String> key = byRemoteAddress();
+        private long limit = 100L;
+        private long period = 1L;
+        private TimeUnit periodUnit = TimeUnit.SECONDS;
+        private long maxKeys = 100000L;
+        private int concurrencyLevel = Runtime.getRuntime().availableProcessors() * 4;
+
+        private Builder() {
+        }
+
+        public Builder withKey(Function<RequestContext, String> val) {
+            key = val;
+            return this;
+        }
+
+        public Builder withLimit(long val, long per, TimeUnit unit) {
+            limit = val;
+            period = per;
+            periodUnit = unit;
+            return this;
+        }
+
+        public Builder withMaxKeys(long val) {
+            maxKeys = val;
+            return this;
+        }
+
+        public Builder withConcurrencyLevel(int val) {
+            concurrencyLevel = val;
+            return this;
+        }
+
+        public RateLimited build() {
+            if (limit <= 0L || period <= 0L) {
+                throw new IllegalArgumentException("Rate limit and period must be positive");
+            }
+            return new RateLimited(this);
+        }
+    }
+}
@@ -1,45 +1,61 @@
 package org.reactivecouchbase.sbessentials.libs.actions;
 
-import akka.actor.ActorSystem;
-import akka.stream.ActorMaterializer;
 import akka.stream.javadsl.Source;
 import akka.stream.javadsl.StreamConverters;
 import akka.util.ByteString;
+import javaslang.Tuple2;
 import javaslang.collection.HashMap;
 import javaslang.collection.List;
 import javaslang.collection.Map;
-import org.reactivecouchbase.common.Throwables;
 import org.reactivecouchbase.concurrent.Await;
 import org.reactivecouchbase.concurrent.Future;
+import org.reactivecouchbase.concurrent.Promise;
 import org.reactivecouchbase.functional.Option;
 import org.reactivecouchbase.json.JsValue;
 import org.reactivecouchbase.json.Json;
+import org.reactivecouchbase.sbessentials.libs.form.Multipart;
+import org.reactivecouchbase.sbessentials.libs.form.UrlEncodedForm;
+import org.reactivecouchbase.sbessentials.libs.json.JsonReader;
+import org.reactivecouchbase.sbessentials.libs.xml.Xml;
 import org.springframework.web.context.WebApplicationContext;
 import org.w3c.dom.Node;
-import org.xml.sax.InputSource;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.xml.parsers.DocumentBuilderFactory;
-import java.io.StringReader;
+import javax.xml.stream.events.XMLEvent;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class RequestContext {
 
+    private static final Object[] NO_ATTRS = new Object[0];
+
     private final HashMap<String, Object> state;
 
+    private final Object[] attrs;
+
     private final WebApplicationContext applicationContext;
 
     private final HttpServletRequest request;
 
     private final HttpServletResponse response;
 
+    private final AtomicReference<Future<ByteString>> _bodyAsBytes;
+
+    private final RequestHeaders headers;
+
     public RequestContext(HashMap<String, Object> state, WebApplicationContext applicationContext, HttpServletRequest request, HttpServletResponse response) {
+        this(state, NO_ATTRS, applicationContext, request, response, new AtomicReference<>(null), new RequestHeaders(request));
+    }
+
+    private RequestContext(HashMap<String, Object> state, Object[] attrs, WebApplicationContext applicationContext, HttpServletRequest request, HttpServletResponse response, AtomicReference<Future<ByteString>> bodyAsBytes, RequestHeaders headers) {
         this.state = state;
+        this.attrs = attrs;
         this.applicationContext = applicationContext;
         this.request = request;
         this.response = response;
+        this._bodyAsBytes = bodyAsBytes;
+        this.headers = headers;
     }
 
     public <T> T getBean(Class<T> clazz) {
@@ -62,8 +78,26 @@ public class RequestContext {
         if(key == null || value == null) {
             return this;
         } else {
-            return new RequestContext(state.put(key, value), applicationContext, request, response);
+            return new RequestContext(state.put(key, value), attrs, applicationContext, request, response, _bodyAsBytes, headers);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> Option<T> getAttr(AttrKey<T> key) {
+        return key.id < attrs.length ? Option.apply((T) attrs[key.id]) : Option.none();
+    }
+
+    /**
+     * @return a new context with the attribute set, the current one is left unchanged
+     */
+    public <T> RequestContext setAttr(AttrKey<T> key, T value) {
+        if (key == null || value == null) {
+            return this;
         }
+        // room for every key known so far, so setting the next attributes does not grow the array again
+        Object[] newAttrs = Arrays.copyOf(attrs, Math.max(key.id + 1, Math.max(attrs.length, AttrKey.count())));
+        newAttrs[key.id] = value;
+        return new RequestContext(state, newAttrs, applicationContext, request, response, _bodyAsBytes, headers);
     }
 
     public HttpServletRequest getRequest() {
@@ -74,30 +108,164 @@ public class RequestContext {
         return response;
     }
 
-    private final AtomicReference<ByteString> _bodyAsBytes = new AtomicReference<>(null);
+    /**
+     * @return the deadline of the request, set by a {@link Timeout} Action
+     */
+    public Option<Deadline> deadline() {
+        return getAttr(Deadline.KEY);
+    }
+
+    /**
+     * @return the source bound to the deadline of the request, if any
+     */
+    public <T, M> Source<T, M> withDeadline(Source<T, M> source) {
+        for (Deadline deadline : deadline()) {
+            return deadline.bind(source);
+        }
+        return source;
+    }
 
     public Source<ByteString, ?> bodyAsStream() {
-        return StreamConverters.fromInputStream(() -> getRequest().getInputStream());
+        return withDeadline(StreamConverters.fromInputStream(() -> getRequest().getInputStream()));
+    }
+
+    /**
+     * Parses the body incrementally, emitting its JSON objects (NDJSON lines or elements of a top-level array)
+     * as soon as each one has been uploaded. Only the object being parsed is kept in memory.
+     */
+    public Source<JsValue, ?> bodyAsJsonStream() {
+        return bodyAsStream().via(JsonReader.objects());
+    }
+
+    public Source<JsValue, ?> bodyAsJsonStream(int maxObjectLength) {
+        return bodyAsStream().via(JsonReader.objects(maxObjectLength));
     }
 
     public Option<String> header(String name) {
-        return Option.apply(request.getHeader(name));
+        return headers.get(name);
     }
 
+    /**
+     * @return all the headers of the request, looked up ignoring the case of their names
+     */
     public Map<String, List<String>> headers() {
-        throw new RuntimeException("Not implemented yet");
+        return headers.all();
     }
 
-    public ByteString bodyAsBytes() {
-        if (_bodyAsBytes.get() == null) {
-            ActorMaterializer materializer = ActorMaterializer.create(Actions.webApplicationContext.getBean(ActorSystem.class));
-            Future<ByteString> fource = Future.fromJdkCompletableFuture(
-                bodyAsStream().runFold(ByteString.empty(), ByteString::concat, materializer).toCompletableFuture()
-            );
-            ByteString bodyAsString = Await.resultForever(fource);
-            _bodyAsBytes.compareAndSet(null, bodyAsString);
+    /**
+     * @return the accepted media types, by decreasing quality
+     */
+    public List<String> accept() {
+        return headers.accept();
+    }
+
+    /**
+     * @return the accepted content codings, by decreasing quality
+     */
+    public List<String> acceptEncoding() {
+        return headers.acceptEncoding();
+    }
+
+    /**
+     * @return the content codings refused with a quality of 0
+     */
+    public List<String> refusedEncodings() {
+        return headers.refusedEncodings();
+    }
+
+    /**
+     * @return the scheme and the credentials of the `Authorization` header
+     */
+    public Option<Tuple2<String, String>> authorization() {
+        return headers.authorization();
+    }
+
+    /**
+     * @return the entity tags of the `If-None-Match` header, as sent
+     */
+    public List<String> ifNoneMatch() {
+        return headers.ifNoneMatch();
+    }
+
+    /**
+     * Reads the whole body without blocking, up to the configured `app.config.request.maxbodysize`.
+     * The future fails with an {@link EntityTooLargeException} as soon as the body is known to be too large.
+     */
+    public Future<ByteString> bodyAsBytesAsync() {
+        return bodyAsBytesAsync(Actions.maxBodySize);
+    }
+
+    /**
+     * Same as {@link #bodyAsBytesAsync()} with a specific size limit. The body is only read once,
+     * so the limit of the first call applies.
+     */
+    public Future<ByteString> bodyAsBytesAsync(long maxSize) {
+        Future<ByteString> body = _bodyAsBytes.get();
+        if (body != null) {
+            return body;
+        }
+        Promise<ByteString> promise = Promise.create();
+        if (!_bodyAsBytes.compareAndSet(null, promise.future())) {
+            return _bodyAsBytes.get();
         }
-        return _bodyAsBytes.get();
+        // only the caller that registered its promise reads the servlet input stream
+        readBody(maxSize).andThen(ttry -> {
+            for (ByteString bytes : ttry.asSuccess()) {
+                promise.trySuccess(bytes);
+            }
+            for (Throwable t : ttry.asFailure()) {
+                promise.tryFailure(t);
+            }
+        });
+        return promise.future();
+    }
+
+    public Future<String> bodyAsStringAsync() {
+        return bodyAsBytesAsync().map(ByteString::utf8String);
+    }
+
+    public Future<JsValue> bodyAsJsonAsync() {
+        return bodyAsStringAsync().map(Json::parse);
+    }
+
+    public Future<Node> bodyAsXmlAsync() {
+        return bodyAsBytesAsync().map(Xml::parse);
+    }
+
+    /**
+     * @return the StAX events of the body, read as it is uploaded
+     */
+    public Source<XMLEvent, ?> bodyAsXmlEvents() {
+        return Xml.events(bodyAsStream(), Actions.streamRuntime);
+    }
+
+    /**
+     * @return the elements of the body with the given local name, parsed as soon as each one is uploaded
+     */
+    public Source<Node, ?> bodyAsXmlElements(String localName) {
+        return Xml.elements(bodyAsStream(), localName, Actions.streamRuntime);
+    }
+
+    public Future<Map<String, List<String>>> bodyAsURLFormAsync() {
+        return bodyAsBytesAsync().map(UrlEncodedForm::decode);
+    }
+
+    private Future<ByteString> readBody(long maxSize) {
+        if (request.getContentLengthLong() > maxSize) {
+            return Future.failed(new EntityTooLargeException(maxSize));
+        }
+        return Future.fromJdkCompletableFuture(
+            Actions.streamRuntime.instrument(bodyAsStream()).runFold(ByteString.empty(), (body, chunk) -> {
+                if (body.length() + chunk.length() > maxSize) {
+                    throw new EntityTooLargeException(maxSize);
+                }
+                return body.concat(chunk);
+            }, Actions.streamRuntime.materializer()).toCompletableFuture()
+        ).map(ByteString::compact);
+    }
+
+    public ByteString bodyAsBytes() {
+        return Await.resultForever(bodyAsBytesAsync());
     }
 
     public String bodyAsString() {
@@ -109,26 +277,36 @@ public class RequestContext {
     }
 
     public Node bodyAsXml() {
-        try {
-            return DocumentBuilderFactory.newInstance().newDocumentBuilder()
-                    .parse(new InputSource(new StringReader(bodyAsString())));
-        } catch (Exception e) {
-            throw Throwables.propagate(e);
-        }
+        return Xml.parse(bodyAsBytes());
     }
 
     public Map<String, List<String>> bodyAsURLForm() {
-        Map<String, List<String>> form = HashMap.empty();
-        String body = bodyAsString();
-        List<String> parts = List.ofAll(Arrays.asList(body.split("&")));
-        for (String part : parts) {
-            String key = part.split("=")[0];
-            String value = part.split("=")[1];
-            if (!form.containsKey(key)) {
-                form = form.put(key, List.empty());
-            }
-            form = form.put(key, form.get(key).get().append(value));
+        return UrlEncodedForm.decode(bodyAsBytes());
+    }
+
+    /**
+     * Decodes an urlencoded body field by field, as it is uploaded.
+     */
+    public Source<Tuple2<String, String>, ?> bodyAsURLFormStream() {
+        return bodyAsStream().via(UrlEncodedForm.fields());
+    }
+
+    public Source<Multipart.Part, ?> bodyAsMultipart() {
+        return bodyAsMultipart(Actions.multipartSettings);
+    }
+
+    /**
+     * Decodes a `multipart/form-data` body, emitting each part once it has been uploaded.
+     * Large parts are spilled to temporary files, see {@link Multipart}.
+     */
+    public Source<Multipart.Part, ?> bodyAsMultipart(Multipart.Settings settings) {
+        Option<String> boundary = Multipart.boundary(request.getContentType());
+        if (boundary.isEmpty()) {
+            return Source.failed(new IllegalStateException("Request body is not multipart"));
+        }
+        if (request.getContentLengthLong() > settings.maxTotalSize) {
+            return Source.failed(new EntityTooLargeException(settings.maxTotalSize));
         }
-        return form;
+        return bodyAsStream().via(Multipart.parts(boundary.get(), settings));
     }
 }
@@ -0,0 +1,175 @@
+package org.reactivecouchbase.sbessentials.libs.actions;
+
+import javaslang.Tuple;
+import javaslang.Tuple2;
+import javaslang.collection.List;
+import javaslang.collection.Map;
+import javaslang.collection.TreeMap;
+import org.reactivecouchbase.functional.Option;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Locale;
+
+/**
+ * Headers of a request, read from the servlet request once and only when first needed.
+ *
+ * The view is shared by all the contexts derived from the same request, and so are the parsed values
+ * of the headers most filters look at, which are computed at most once per request.
+ */
+class RequestHeaders {
+
+    private static final java.util.Map<String, String> COMMON_NAMES = new java.util.TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        for (String name : new String[] {
+            "Accept", "Accept-Charset", "Accept-Encoding", "Accept-Language", "Authorization", "Cache-Control",
+            "Connection", "Content-Encoding", "Content-Length", "Content-Type", "Cookie", "Host", "If-Match",
+            "If-Modified-Since", "If-None-Match", "Last-Event-ID", "Origin", "Pragma", "Range", "Referer",
+            "User-Agent", "X-Forwarded-For", "X-Forwarded-Host", "X-Forwarded-Proto", "X-Requested-With"
+        }) {
+            COMMON_NAMES.put(name, name);
+        }
+    }
+
+    private final HttpServletRequest request;
+
+    // racy single-check idiom, values are immutable and computing them twice is harmless
+    private volatile Map<String, List<String>> all;
+    private volatile List<String> accept;
+    private volatile List<String> acceptEncoding;
+    private volatile List<String> refusedEncodings;
+    private volatile Option<Tuple2<String, String>> authorization;
+    private volatile List<String> ifNoneMatch;
+
+    RequestHeaders(HttpServletRequest request) {
+        this.request = request;
+    }
+
+    Map<String, List<String>> all() {
+        Map<String, List<String>> headers = all;
+        if (headers == null) {
+            headers = read();
+            all = headers;
+        }
+        return headers;
+    }
+
+    Option<String> get(String name) {
+        // the view is built on the first lookup, the following ones do not go back to the servlet request
+        javaslang.control.Option<List<String>> values = all().get(name);
+        return values.isDefined() && !values.get().isEmpty() ? Option.some(values.get().head()) : Option.none();
+    }
+
+    List<String> accept() {
+        List<String> value = accept;
+        if (value == null) {
+            value = byQuality(values("Accept"));
+            accept = value;
+        }
+        return value;
+    }
+
+    List<String> acceptEncoding() {
+        List<String> value = acceptEncoding;
+        if (value == null) {
+            value = byQuality(values("Accept-Encoding"));
+            acceptEncoding = value;
+        }
+        return value;
+    }
+
+    List<String> refusedEncodings() {
+        List<String> value = refusedEncodings;
+        if (value == null) {
+            value = qualities(values("Accept-Encoding")).filter(v -> v._2 <= 0.0).map(v -> v._1);
+            refusedEncodings = value;
+        }
+        return value;
+    }
+
+    Option<Tuple2<String, String>> authorization() {
+        Option<Tuple2<String, String>> value = authorization;
+        if (value == null) {
+            value = parseAuthorization(get("Authorization"));
+            authorization = value;
+        }
+        return value;
+    }
+
+    List<String> ifNoneMatch() {
+        List<String> value = ifNoneMatch;
+        if (value == null) {
+            value = values("If-None-Match").map(String::trim).filter(tag -> !tag.isEmpty());
+            ifNoneMatch = value;
+        }
+        return value;
+    }
+
+    private Map<String, List<String>> read() {
+        java.util.List<Tuple2<String, List<String>>> entries = new ArrayList<>();
+        Enumeration<String> names = request.getHeaderNames();
+        if (names != null) {
+            for (String name : Collections.list(names)) {
+                entries.add(Tuple.of(COMMON_NAMES.getOrDefault(name, name), List.ofAll(Collections.list(request.getHeaders(name)))));
+            }
+        }
+        return TreeMap.ofEntries(String.CASE_INSENSITIVE_ORDER, entries);
+    }
+
+    /**
+     * @return the comma separated elements of every occurrence of the header
+     */
+    private List<String> values(String name) {
+        return all().get(name).getOrElse(List.empty())
+                .flatMap(value -> List.of(value.split(",")))
+                .map(String::trim)
+                .filter(value -> !value.isEmpty());
+    }
+
+    /**
+     * @return the values without their parameters, by decreasing quality, values with a quality of 0 removed
+     */
+    private static List<String> byQuality(List<String> values) {
+        return qualities(values)
+            .filter(value -> value._2 > 0.0)
+            // stable sort, values of equal quality keep the order of the header
+            .sortBy(value -> -value._2)
+            .map(value -> value._1);
+    }
+
+    /**
+     * @return the values without their parameters, with their quality
+     */
+    private static List<Tuple2<String, Double>> qualities(List<String> values) {
+        return values.map(value -> {
+            String[] parts = value.split(";");
+            double quality = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0.0;
+                    }
+                }
+            }
+            return Tuple.of(parts[0].trim().toLowerCase(Locale.ENGLISH), quality);
+        });
+    }
+
+    private static Option<Tuple2<String, String>> parseAuthorization(Option<String> header) {
+        for (String value : header) {
+            String trimmed = value.trim();
+            int space = trimmed.indexOf(' ');
+            if (space < 0) {
+                return Option.some(Tuple.of(trimmed, ""));
+            }
+            return Option.some(Tuple.of(trimmed.substring(0, space), trimmed.substring(space + 1).trim()));
+        }
+        return Option.none();
+    }
+}
@@ -0,0 +1,83 @@
+package org.reactivecouchbase.sbessentials.libs.actions;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import org.reactivecouchbase.concurrent.Future;
+import org.reactivecouchbase.concurrent.Promise;
+import org.reactivecouchbase.json.Json;
+import org.reactivecouchbase.sbessentials.libs.result.Result;
+import org.reactivecouchbase.sbessentials.libs.result.Results;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Action giving its block a {@link Deadline} to produce a Result.
+ *
+ * The deadline is carried by the request context. When it expires, the streams bound to it are failed, which
+ * cancels the calls in flight and the reading of the request body, and the request is answered with
+ * `504 Gateway Timeout` or `408 Request Timeout`. A Result produced in time is returned as is, and its body is
+ * not subject to the deadline.
+ */
+public class Timeout implements Action {
+
+    private final long timeout;
+    private final TimeUnit unit;
+    private final Supplier<Result> result;
+
+    private Timeout(long timeout, TimeUnit unit, Supplier<Result> result) {
+        this.timeout = timeout;
+        this.unit = unit;
+        this.result = result;
+    }
+
+    /**
+     * @return a timeout for blocks waiting on other services, answering `504 Gateway Timeout`
+     */
+    public static Timeout gateway(long timeout, TimeUnit unit) {
+        return new Timeout(timeout, unit, () -> Results.GatewayTimeout.json(Json.obj().with("error", "Gateway timeout")));
+    }
+
+    /**
+     * @return a timeout for blocks waiting on the client, like reading the request body, answering `408 Request Timeout`
+     */
+    public static Timeout request(long timeout, TimeUnit unit) {
+        return new Timeout(timeout, unit, () -> Results.RequestTimeout.json(Json.obj().with("error", "Request timeout")));
+    }
+
+    @Override
+    public Future<Result> invoke(RequestContext request, Function<RequestContext, Future<Result>> block) {
+        Deadline deadline = new Deadline(timeout, unit, request.deadline());
+        Promise<Result> promise = Promise.create();
+        ActorSystem system = Actions.actorSystem;
+        Cancellable timer = system.scheduler().scheduleOnce(
+            FiniteDuration.create(deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS),
+            () -> {
+                if (promise.trySuccess(result.get())) {
+                    Actions.logger.info("Deadline expired for {}", request.getRequest().getRequestURI());
+                    deadline.expire();
+                }
+            },
+            system.dispatcher()
+        );
+        Future<Result> running;
+        try {
+            running = block.apply(request.setAttr(Deadline.KEY, deadline));
+        } catch (RuntimeException e) {
+            timer.cancel();
+            throw e;
+        }
+        running.andThen(ttry -> {
+            timer.cancel();
+            for (Result r : ttry.asSuccess()) {
+                promise.trySuccess(r);
+            }
+            for (Throwable t : ttry.asFailure()) {
+                promise.tryFailure(t);
+            }
+        });
+        return promise.future();
+    }
+}
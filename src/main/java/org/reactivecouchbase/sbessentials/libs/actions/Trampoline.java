@@ -0,0 +1,71 @@
+package org.reactivecouchbase.sbessentials.libs.actions;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor running tasks on the calling thread.
+ *
+ * Tasks submitted while another one runs on the same thread are queued and run once it returns, so chains of
+ * callbacks run in a loop instead of growing the stack. Only meant for short, non-blocking callbacks.
+ */
+public final class Trampoline extends AbstractExecutorService {
+
+    public static final Trampoline INSTANCE = new Trampoline();
+
+    private static final ThreadLocal<ArrayDeque<Runnable>> QUEUE = new ThreadLocal<>();
+
+    private Trampoline() {
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        ArrayDeque<Runnable> queue = QUEUE.get();
+        if (queue != null) {
+            queue.addLast(command);
+            return;
+        }
+        queue = new ArrayDeque<>(4);
+        QUEUE.set(queue);
+        try {
+            Runnable next = command;
+            while (next != null) {
+                try {
+                    next.run();
+                } catch (RuntimeException e) {
+                    Actions.logger.error("Trampoline task error", e);
+                }
+                next = queue.pollFirst();
+            }
+        } finally {
+            QUEUE.remove();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return false;
+    }
+}
@@ -0,0 +1,501 @@
+package org.reactivecouchbase.sbessentials.libs.form;
+
+import akka.NotUsed;
+import akka.stream.ActorAttributes;
+import akka.stream.Attributes;
+import akka.stream.FlowShape;
+import akka.stream.Inlet;
+import akka.stream.Outlet;
+import akka.stream.javadsl.FileIO;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Source;
+import akka.stream.stage.AbstractInHandler;
+import akka.stream.stage.AbstractOutHandler;
+import akka.stream.stage.GraphStage;
+import akka.stream.stage.GraphStageLogic;
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import javaslang.collection.HashMap;
+import javaslang.collection.Map;
+import org.reactivecouchbase.functional.Option;
+import org.reactivecouchbase.sbessentials.libs.actions.EntityTooLargeException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Streaming decoding of `multipart/form-data` bodies.
+ *
+ * Parts are emitted as soon as they are complete. Their content is kept in memory up to a threshold, then spilled
+ * to a temporary file, so uploads never have to fit in the heap. Temporary files are deleted once the body of their
+ * part has been streamed, or when the part is discarded.
+ */
+public class Multipart {
+
+    private static final int FILE_CHUNK_SIZE = 64 * 1024;
+    private static final ByteString CRLF = ByteString.fromString("\r\n");
+    private static final ByteString HEADERS_END = ByteString.fromString("\r\n\r\n");
+    private static final ByteString DASHES = ByteString.fromString("--");
+
+    public static class Settings {
+
+        public final int memoryThreshold;
+        public final long maxPartSize;
+        public final long maxTotalSize;
+        public final int maxHeadersSize;
+
+        public Settings(int memoryThreshold, long maxPartSize, long maxTotalSize, int maxHeadersSize) {
+            this.memoryThreshold = memoryThreshold;
+            this.maxPartSize = maxPartSize;
+            this.maxTotalSize = maxTotalSize;
+            this.maxHeadersSize = maxHeadersSize;
+        }
+
+        public static Settings defaults() {
+            return new Settings(64 * 1024, 100L * 1024L * 1024L, 1024L * 1024L * 1024L, 8 * 1024);
+        }
+    }
+
+    public static class Part {
+
+        public final Map<String, String> headers;
+        public final String name;
+        public final Option<String> filename;
+        public final Option<String> contentType;
+        public final long size;
+        public final Option<File> file;
+
+        private final ByteString bytes;
+
+        private Part(Map<String, String> headers, long size, ByteString bytes, Option<File> file) {
+            this.headers = headers;
+            Map<String, String> disposition = parameters(headers.get("content-disposition").getOrElse(""));
+            this.name = disposition.get("name").getOrElse("");
+            this.filename = option(disposition.get("filename"));
+            this.contentType = option(headers.get("content-type"));
+            this.size = size;
+            this.bytes = bytes;
+            this.file = file;
+        }
+
+        public boolean isFile() {
+            return filename.isDefined();
+        }
+
+        /**
+         * @return the content of the part, its temporary file if any is deleted once the stream terminates
+         */
+        public Source<ByteString, ?> body() {
+            for (File f : file) {
+                return FileIO.fromFile(f, FILE_CHUNK_SIZE).watchTermination((mat, done) -> {
+                    done.whenComplete((d, e) -> discard());
+                    return mat;
+                });
+            }
+            return Source.single(bytes);
+        }
+
+        /**
+         * Moves the content of the part to the given path, without copying it when it has been spilled to disk.
+         */
+        public void moveTo(Path target) throws IOException {
+            for (File f : file) {
+                Files.move(f.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                write(channel, bytes);
+            }
+        }
+
+        /**
+         * Deletes the temporary file of the part, if any.
+         */
+        public void discard() {
+            for (File f : file) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * @return the boundary of a `multipart/*` content type
+     */
+    public static Option<String> boundary(String contentType) {
+        if (contentType == null || !contentType.trim().toLowerCase().startsWith("multipart/")) {
+            return Option.none();
+        }
+        return option(parameters(contentType).get("boundary"));
+    }
+
+    /**
+     * @return a flow emitting the parts of a multipart body delimited by the given boundary, to be materialized
+     *         once like the body it decodes
+     */
+    public static Flow<ByteString, Part, NotUsed> parts(String boundary, Settings settings) {
+        Undelivered undelivered = new Undelivered();
+        // parts spilled to disk are written from the stage, keep it off the default dispatcher, behind an explicit
+        // boundary so the stages around it are still fused
+        return Flow.fromGraph(new PartsStage(boundary, settings, undelivered))
+                .withAttributes(ActorAttributes.dispatcher("akka.stream.default-blocking-io-dispatcher"))
+                .async()
+                .via(new DeliveryStage(undelivered));
+    }
+
+    private static Map<String, String> parameters(String header) {
+        Map<String, String> parameters = HashMap.empty();
+        for (String parameter : header.split(";")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                String value = parameter.substring(equals + 1).trim();
+                if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                parameters = parameters.put(parameter.substring(0, equals).trim().toLowerCase(), value);
+            }
+        }
+        return parameters;
+    }
+
+    private static Option<String> option(javaslang.control.Option<String> value) {
+        return value.isDefined() ? Option.some(value.get()) : Option.none();
+    }
+
+    private static void write(FileChannel channel, ByteString bytes) throws IOException {
+        for (ByteBuffer buffer : bytes.getByteBuffers()) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Parts sent through the asynchronous boundary of the parts stage and not handed to downstream yet.
+     * They are discarded once the delivery stage has stopped, as they would stay buffered at the boundary.
+     */
+    private static class Undelivered {
+
+        private final Set<Part> parts = ConcurrentHashMap.newKeySet();
+        private volatile boolean closed = false;
+
+        private void add(Part part) {
+            parts.add(part);
+            // checked after adding, so either this or close() sees the part
+            if (closed) {
+                discardAll();
+            }
+        }
+
+        /**
+         * @return false if the part has already been discarded
+         */
+        private boolean remove(Part part) {
+            return parts.remove(part);
+        }
+
+        private void close() {
+            closed = true;
+            discardAll();
+        }
+
+        private void discardAll() {
+            for (Part part : parts) {
+                if (parts.remove(part)) {
+                    part.discard();
+                }
+            }
+        }
+    }
+
+    private enum State { BOUNDARY, HEADERS, BODY, DONE }
+
+    private static class PartsStage extends GraphStage<FlowShape<ByteString, Part>> {
+
+        private final Inlet<ByteString> in = Inlet.create("Multipart.in");
+        private final Outlet<Part> out = Outlet.create("Multipart.out");
+        private final FlowShape<ByteString, Part> shape = FlowShape.of(in, out);
+
+        private final ByteString delimiter;
+        private final Settings settings;
+        private final Undelivered undelivered;
+
+        private PartsStage(String boundary, Settings settings, Undelivered undelivered) {
+            this.delimiter = CRLF.concat(DASHES).concat(ByteString.fromString(boundary));
+            this.settings = settings;
+            this.undelivered = undelivered;
+        }
+
+        @Override
+        public FlowShape<ByteString, Part> shape() {
+            return shape;
+        }
+
+        @Override
+        public GraphStageLogic createLogic(Attributes inheritedAttributes) {
+            return new GraphStageLogic(shape) {
+
+                // the first delimiter is not preceded by a line break
+                private ByteString buffer = CRLF;
+                private State state = State.BODY;
+                private PartBuilder current = null;
+                private long total = 0L;
+                // parts parsed but not pushed yet, discarded with their files if the stage stops before
+                private final Deque<Part> pending = new ArrayDeque<>();
+
+                {
+                    setHandler(in, new AbstractInHandler() {
+                        @Override
+                        public void onPush() throws Exception {
+                            ByteString chunk = grab(in);
+                            total += chunk.length();
+                            if (total > settings.maxTotalSize) {
+                                throw new EntityTooLargeException(settings.maxTotalSize);
+                            }
+                            if (state != State.DONE) {
+                                buffer = buffer.concat(chunk).compact();
+                                parse();
+                            }
+                            if (pending.isEmpty()) {
+                                pull(in);
+                            } else {
+                                emitMultiple(out, delivery());
+                            }
+                        }
+
+                        @Override
+                        public void onUpstreamFinish() throws Exception {
+                            if (state == State.DONE) {
+                                complete(out);
+                            } else {
+                                failStage(new IllegalStateException("Unexpected end of multipart body"));
+                            }
+                        }
+                    });
+                    setHandler(out, new AbstractOutHandler() {
+                        @Override
+                        public void onPull() throws Exception {
+                            if (!hasBeenPulled(in)) {
+                                pull(in);
+                            }
+                        }
+                    });
+                }
+
+                /**
+                 * @return an iterator removing the pending parts as they are pushed
+                 */
+                private Iterator<Part> delivery() {
+                    return new Iterator<Part>() {
+                        @Override
+                        public boolean hasNext() {
+                            return !pending.isEmpty();
+                        }
+
+                        @Override
+                        public Part next() {
+                            Part part = pending.poll();
+                            undelivered.add(part);
+                            return part;
+                        }
+                    };
+                }
+
+                private void parse() throws IOException {
+                    while (true) {
+                        switch (state) {
+                            case BODY: {
+                                int index = buffer.indexOfSlice(delimiter);
+                                if (index < 0) {
+                                    // keep the bytes that could be the start of a delimiter
+                                    int safe = buffer.length() - delimiter.length() + 1;
+                                    if (safe > 0 && current != null) {
+                                        current.write(buffer.take(safe));
+                                    }
+                                    if (safe > 0) {
+                                        buffer = buffer.drop(safe);
+                                    }
+                                    return;
+                                }
+                                if (current != null) {
+                                    current.write(buffer.take(index));
+                                    pending.add(current.complete());
+                                    current = null;
+                                }
+                                buffer = buffer.drop(index + delimiter.length());
+                                state = State.BOUNDARY;
+                                break;
+                            }
+                            case BOUNDARY: {
+                                if (buffer.length() < 2) {
+                                    return;
+                                }
+                                ByteString next = buffer.take(2);
+                                buffer = buffer.drop(2);
+                                if (next.equals(DASHES)) {
+                                    state = State.DONE;
+                                    buffer = ByteString.empty();
+                                    return;
+                                }
+                                if (!next.equals(CRLF)) {
+                                    throw new IllegalStateException("Malformed multipart boundary");
+                                }
+                                state = State.HEADERS;
+                                break;
+                            }
+                            case HEADERS: {
+                                Map<String, String> headers = HashMap.empty();
+                                if (buffer.startsWith(CRLF)) {
+                                    buffer = buffer.drop(2);
+                                } else {
+                                    int index = buffer.indexOfSlice(HEADERS_END);
+                                    if (index < 0) {
+                                        if (buffer.length() > settings.maxHeadersSize) {
+                                            throw new IllegalStateException("Multipart headers are too large");
+                                        }
+                                        return;
+                                    }
+                                    for (String line : buffer.take(index).utf8String().split("\r\n")) {
+                                        int colon = line.indexOf(':');
+                                        if (colon > 0) {
+                                            headers = headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+                                        }
+                                    }
+                                    buffer = buffer.drop(index + HEADERS_END.length());
+                                }
+                                current = new PartBuilder(headers);
+                                state = State.BODY;
+                                break;
+                            }
+                            default:
+                                return;
+                        }
+                    }
+                }
+
+                @Override
+                public void postStop() throws Exception {
+                    if (current != null) {
+                        current.discard();
+                    }
+                    for (Part part : pending) {
+                        part.discard();
+                    }
+                    pending.clear();
+                }
+            };
+        }
+
+        private class PartBuilder {
+
+            private final Map<String, String> headers;
+            private ByteStringBuilder memory = ByteString.createBuilder();
+            private long size = 0L;
+            private File file = null;
+            private FileChannel channel = null;
+
+            private PartBuilder(Map<String, String> headers) {
+                this.headers = headers;
+            }
+
+            private void write(ByteString bytes) throws IOException {
+                if (bytes.isEmpty()) {
+                    return;
+                }
+                size += bytes.length();
+                if (size > settings.maxPartSize) {
+                    throw new EntityTooLargeException(settings.maxPartSize);
+                }
+                if (channel == null && size > settings.memoryThreshold) {
+                    file = Files.createTempFile("multipart-", ".part").toFile();
+                    channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+                    Multipart.write(channel, memory.result());
+                    memory = null;
+                }
+                if (channel != null) {
+                    Multipart.write(channel, bytes);
+                } else {
+                    memory.append(bytes);
+                }
+            }
+
+            private Part complete() throws IOException {
+                if (channel != null) {
+                    channel.close();
+                    return new Part(headers, size, ByteString.empty(), Option.some(file));
+                }
+                return new Part(headers, size, memory.result(), Option.none());
+            }
+
+            private void discard() throws IOException {
+                if (channel != null) {
+                    channel.close();
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands the parts over to downstream, past the asynchronous boundary of the parts stage.
+     * The parts still buffered at the boundary when the stream stops are discarded.
+     */
+    private static class DeliveryStage extends GraphStage<FlowShape<Part, Part>> {
+
+        private final Inlet<Part> in = Inlet.create("MultipartDelivery.in");
+        private final Outlet<Part> out = Outlet.create("MultipartDelivery.out");
+        private final FlowShape<Part, Part> shape = FlowShape.of(in, out);
+
+        private final Undelivered undelivered;
+
+        private DeliveryStage(Undelivered undelivered) {
+            this.undelivered = undelivered;
+        }
+
+        @Override
+        public FlowShape<Part, Part> shape() {
+            return shape;
+        }
+
+        @Override
+        public GraphStageLogic createLogic(Attributes inheritedAttributes) {
+            return new GraphStageLogic(shape) {
+                {
+                    setHandler(in, new AbstractInHandler() {
+                        @Override
+                        public void onPush() throws Exception {
+                            Part part = grab(in);
+                            if (undelivered.remove(part)) {
+                                push(out, part);
+                            } else {
+                                // already discarded by the parts stage
+                                pull(in);
+                            }
+                        }
+                    });
+                    setHandler(out, new AbstractOutHandler() {
+                        @Override
+                        public void onPull() throws Exception {
+                            pull(in);
+                        }
+                    });
+                }
+
+                @Override
+                public void postStop() throws Exception {
+                    undelivered.close();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.reactivecouchbase.sbessentials.libs.form;
+
+import akka.NotUsed;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Framing;
+import akka.stream.javadsl.FramingTruncation;
+import akka.util.ByteString;
+import javaslang.Tuple;
+import javaslang.Tuple2;
+import javaslang.collection.HashMap;
+import javaslang.collection.List;
+import javaslang.collection.Map;
+import org.reactivecouchbase.common.Throwables;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * Decoding of `application/x-www-form-urlencoded` bodies.
+ */
+public class UrlEncodedForm {
+
+    public static final int DEFAULT_MAX_FIELD_LENGTH = 64 * 1024;
+
+    private static final ByteString SEPARATOR = ByteString.fromString("&");
+
+    /**
+     * @return a flow emitting the decoded (name, value) pairs of the form as soon as each one has been received
+     */
+    public static Flow<ByteString, Tuple2<String, String>, NotUsed> fields(int maxFieldLength) {
+        return Flow.<ByteString>create()
+                .via(Framing.delimiter(SEPARATOR, maxFieldLength, FramingTruncation.ALLOW))
+                .filter(field -> !field.isEmpty())
+                .map(UrlEncodedForm::field);
+    }
+
+    public static Flow<ByteString, Tuple2<String, String>, NotUsed> fields() {
+        return fields(DEFAULT_MAX_FIELD_LENGTH);
+    }
+
+    /**
+     * @return the decoded fields of an in-memory form, values of repeated names are kept in order
+     */
+    public static Map<String, List<String>> decode(ByteString body) {
+        java.util.Map<String, java.util.List<String>> form = new LinkedHashMap<>();
+        int start = 0;
+        while (start <= body.length()) {
+            int end = body.indexOf((byte) '&', start);
+            if (end < 0) {
+                end = body.length();
+            }
+            if (end > start) {
+                Tuple2<String, String> field = field(body.slice(start, end));
+                form.computeIfAbsent(field._1, k -> new ArrayList<>()).add(field._2);
+            }
+            start = end + 1;
+        }
+        return HashMap.ofAll(form).mapValues(List::ofAll);
+    }
+
+    private static Tuple2<String, String> field(ByteString field) {
+        int equals = field.indexOf((byte) '=');
+        if (equals < 0) {
+            return Tuple.of(urlDecode(field), "");
+        }
+        return Tuple.of(urlDecode(field.slice(0, equals)), urlDecode(field.drop(equals + 1)));
+    }
+
+    private static String urlDecode(ByteString value) {
+        try {
+            return URLDecoder.decode(value.utf8String(), StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+}
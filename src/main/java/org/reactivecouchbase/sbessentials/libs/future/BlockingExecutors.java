@@ -0,0 +1,73 @@
+package org.reactivecouchbase.sbessentials.libs.future;
+
+import org.reactivecouchbase.concurrent.NamedExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executors running blocking code, as set by `app.config.executors.kind`.
+ *
+ * `fixed` is a pool of platform threads. `virtual` starts one virtual thread per task, so blocking calls do not
+ * hold a platform thread and pools do not have to be sized. Virtual threads are looked up reflectively as the code
+ * targets Java 8, and the fixed pool is used when the JVM does not provide them.
+ */
+public class BlockingExecutors {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlockingExecutors.class);
+
+    public static final String FIXED = "fixed";
+    public static final String VIRTUAL = "virtual";
+
+    /**
+     * @param threads size of the pool, when one is used
+     * @param tracePinning print the stack of virtual threads blocking while pinned to their carrier thread
+     */
+    public static ExecutorService create(String kind, int threads, String name, boolean tracePinning) {
+        if (VIRTUAL.equalsIgnoreCase(kind.trim())) {
+            if (tracePinning && System.getProperty("jdk.tracePinnedThreads") == null) {
+                // read when the first virtual thread is started
+                System.setProperty("jdk.tracePinnedThreads", "short");
+            }
+            ExecutorService executor = virtual(name);
+            if (executor != null) {
+                logger.info("{} runs tasks on virtual threads", name);
+                return executor;
+            }
+            logger.warn("Virtual threads are not supported by this JVM, {} runs tasks on {} platform threads", name, threads);
+        } else if (!FIXED.equalsIgnoreCase(kind.trim())) {
+            throw new IllegalArgumentException("Unknown executor kind '" + kind + "', expected '" + FIXED + "' or '" + VIRTUAL + "'");
+        }
+        return NamedExecutors.newFixedThreadPool(threads, name);
+    }
+
+    public static boolean virtualThreadsSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static ExecutorService virtual(String name) {
+        if (!virtualThreadsSupported()) {
+            return null;
+        }
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            Method perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) perTask.invoke(null, factory);
+        } catch (Exception e) {
+            logger.warn("Could not create a virtual thread executor", e);
+            return null;
+        }
+    }
+}
@@ -1,42 +1,53 @@
 package org.reactivecouchbase.sbessentials.libs.future;
 
 import akka.Done;
-import akka.actor.ActorSystem;
+import akka.NotUsed;
 import akka.japi.Pair;
-import akka.stream.ActorMaterializer;
 import akka.stream.javadsl.Keep;
 import akka.stream.javadsl.Source;
-import akka.stream.javadsl.Sink;
-import akka.util.ByteString;
 import javaslang.collection.List;
 import org.reactivecouchbase.concurrent.Future;
+import org.reactivecouchbase.json.JsValue;
 import org.reactivecouchbase.sbessentials.libs.actions.Actions;
+import org.reactivecouchbase.sbessentials.libs.result.Ranges;
 import org.reactivecouchbase.sbessentials.libs.result.Result;
+import org.reactivecouchbase.sbessentials.libs.result.Results;
+import org.reactivecouchbase.sbessentials.libs.streams.StreamRuntime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.MethodParameter;
-import org.springframework.http.MediaType;
+import org.springframework.core.ResolvableType;
 import org.springframework.util.Assert;
 import org.springframework.web.context.request.NativeWebRequest;
 import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.context.request.async.WebAsyncUtils;
 import org.springframework.web.method.support.AsyncHandlerMethodReturnValueHandler;
 import org.springframework.web.method.support.ModelAndViewContainer;
-import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
 public class FutureSupport {
 
     public static class FutureReturnValueHandler implements AsyncHandlerMethodReturnValueHandler {
 
-        private final ActorMaterializer materializer;
+        public static final int DEFAULT_BUFFER_SIZE = 8192;
+        public static final long DEFAULT_FLUSH_DELAY_MILLIS = 10L;
 
-        public FutureReturnValueHandler(ActorSystem system) {
-            this.materializer = ActorMaterializer.create(system);
+        private final StreamRuntime streamRuntime;
+        private final int bufferSize;
+        private final long flushDelayMillis;
+
+        public FutureReturnValueHandler(StreamRuntime streamRuntime) {
+            this(streamRuntime, DEFAULT_BUFFER_SIZE, DEFAULT_FLUSH_DELAY_MILLIS);
+        }
+
+        public FutureReturnValueHandler(StreamRuntime streamRuntime, int bufferSize, long flushDelayMillis) {
+            this.streamRuntime = streamRuntime;
+            this.bufferSize = bufferSize;
+            this.flushDelayMillis = flushDelayMillis;
         }
 
         @Override
@@ -58,47 +69,125 @@ public class FutureSupport {
                 return;
             }
             final Future<Result> future = Future.class.cast(returnValue);
+            final HttpServletRequest request = (HttpServletRequest) webRequest.getNativeRequest();
             final HttpServletResponse response = (HttpServletResponse) webRequest.getNativeResponse();
-            WebAsyncUtils.getAsyncManager(webRequest)
-                 .startDeferredResultProcessing(
-                        new FutureDeferredResult(future, response, materializer), mavContainer);
+            // the body is written by FutureDeferredResult, the async dispatch only has to end the request
+            mavContainer.setRequestHandled(true);
+            FutureDeferredResult deferredResult = new FutureDeferredResult(future, request, response, streamRuntime, bufferSize, flushDelayMillis);
+            WebAsyncUtils.getAsyncManager(webRequest).startDeferredResultProcessing(deferredResult, mavContainer);
+            // non-blocking writes are only allowed once async processing has started
+            deferredResult.start();
+        }
+    }
+
+    /**
+     * Handles controller methods returning a `Source<JsValue, ?>`, written as a JSON array with non-blocking writes,
+     * like any streamed Result.
+     */
+    public static class JsonSourceReturnValueHandler implements AsyncHandlerMethodReturnValueHandler {
+
+        private final FutureReturnValueHandler delegate;
+
+        public JsonSourceReturnValueHandler(FutureReturnValueHandler delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean isAsyncReturnValue(Object returnValue, MethodParameter returnType) {
+            return returnValue != null && supportsReturnType(returnType);
+        }
+
+        @Override
+        public boolean supportsReturnType(MethodParameter returnType) {
+            Class<?> element = ResolvableType.forMethodParameter(returnType).getGeneric(0).resolve();
+            return Source.class.isAssignableFrom(returnType.getParameterType()) && element != null && JsValue.class.isAssignableFrom(element);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public void handleReturnValue(Object returnValue, MethodParameter returnType, ModelAndViewContainer mavContainer, NativeWebRequest webRequest) throws Exception {
+            if (returnValue == null) {
+                mavContainer.setRequestHandled(true);
+                return;
+            }
+            Result result = Results.Ok.json((Source<JsValue, ?>) returnValue);
+            delegate.handleReturnValue(Future.successful(result), returnType, mavContainer, webRequest);
         }
     }
 
-    public static class FutureDeferredResult extends DeferredResult<ResponseBodyEmitter> {
+    public static class FutureDeferredResult extends DeferredResult<Object> {
 
         private static final Logger logger = LoggerFactory.getLogger(FutureDeferredResult.class);
 
-        public FutureDeferredResult(Future<Result> future, HttpServletResponse response, ActorMaterializer materializer) {
+        private final Future<Result> future;
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+        private final StreamRuntime streamRuntime;
+        private final int bufferSize;
+        private final long flushDelayMillis;
+
+        public FutureDeferredResult(Future<Result> future, HttpServletRequest request, HttpServletResponse response, StreamRuntime streamRuntime, int bufferSize, long flushDelayMillis) {
             super(null, new Object());
             Assert.notNull(future, "Future cannot be null");
+            this.future = future;
+            this.request = request;
+            this.response = response;
+            this.streamRuntime = streamRuntime;
+            this.bufferSize = bufferSize;
+            this.flushDelayMillis = flushDelayMillis;
+        }
+
+        /**
+         * Writes the Result once the future completes, must be called after async processing has started.
+         */
+        public void start() {
             future.andThen(ttry -> {
-                for (Result result : ttry.asSuccess()) {
+                for (Result original : ttry.asSuccess()) {
+                    Result result = Ranges.apply(original, request);
                     for (Map.Entry<String, List<String>> entry : result.headers.toJavaMap().entrySet()) {
+                        // headers like Vary can have several values, only the first one replaces what is already set
+                        boolean first = true;
                         for (String value : entry.getValue()) {
-                            response.setHeader(entry.getKey(), value);
+                            if (first) {
+                                response.setHeader(entry.getKey(), value);
+                                first = false;
+                            } else {
+                                response.addHeader(entry.getKey(), value);
+                            }
                         }
                     }
                     result.cookies.forEach(response::addCookie);
                     response.setStatus(result.status);
                     response.setContentType(result.contentType);
-                    ResponseBodyEmitter rbe = new ResponseBodyEmitter();
-                    this.setResult(rbe);
-
-                    Source<ByteString, ?> source = result.source;
-                    Pair<?, CompletionStage<Done>> run = source.toMat(Sink.foreach(byteString -> {
-                        rbe.send(byteString.toArray(), MediaType.parseMediaType(result.contentType));
-                    }), Keep.both()).run(materializer);
-
-                    result.materializedValue.trySuccess(run.first());
-
-                    run.second().whenComplete((success, error) -> {
-                        if (success != null) {
-                            rbe.complete();
+                    for (Long length : result.contentLength()) {
+                        response.setContentLengthLong(length);
+                    }
+                    try {
+                        ResponseWriter writer = new ResponseWriter(response.getOutputStream(), bufferSize);
+                        CompletionStage<Done> written;
+                        if (result.strictBody.isDefined()) {
+                            // the body is already encoded, write it at once without materializing a stream
+                            original.materializedValue.trySuccess(NotUsed.getInstance());
+                            written = writer.writeStrict(result.strictBody.get());
                         } else {
-                            rbe.completeWithError(error);
+                            Pair<?, CompletionStage<Done>> run = streamRuntime.instrument(result.source)
+                                    .toMat(new ResponseSink(writer, flushDelayMillis), Keep.both())
+                                    .run(streamRuntime.materializer());
+                            original.materializedValue.trySuccess(run.first());
+                            written = run.second();
                         }
-                    });
+                        written.whenComplete((success, error) -> {
+                            if (error == null) {
+                                this.setResult(null);
+                            } else {
+                                logger.error("Error while writing response body", error);
+                                this.setErrorResult(error);
+                            }
+                        });
+                    } catch (Exception e) {
+                        logger.error("Error while writing response body", e);
+                        this.setErrorResult(e);
+                    }
                 }
                 for (Throwable t : ttry.asFailure()) {
                     this.setErrorResult(t);
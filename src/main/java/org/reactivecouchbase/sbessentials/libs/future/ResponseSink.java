@@ -0,0 +1,147 @@
+package org.reactivecouchbase.sbessentials.libs.future;
+
+import akka.Done;
+import akka.stream.Attributes;
+import akka.stream.Inlet;
+import akka.stream.SinkShape;
+import akka.stream.stage.AbstractInHandler;
+import akka.stream.stage.AsyncCallback;
+import akka.stream.stage.GraphStageLogic;
+import akka.stream.stage.GraphStageWithMaterializedValue;
+import akka.stream.stage.TimerGraphStageLogic;
+import akka.util.ByteString;
+import scala.Tuple2;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sink writing a response body through a non-blocking {@link ResponseWriter}.
+ *
+ * A new element is only pulled from upstream once the previous one has been handed to the container,
+ * so the memory used by a slow connection is bounded by one element and the write buffer.
+ *
+ * The writer buffer is flushed when it is full, when the flush delay is elapsed since the first unflushed
+ * byte, and when the stream completes. A flush delay of zero flushes after each chunk.
+ */
+public class ResponseSink extends GraphStageWithMaterializedValue<SinkShape<ByteString>, CompletionStage<Done>> {
+
+    private static final String FLUSH_TIMER = "flush";
+
+    private final Inlet<ByteString> in = Inlet.create("ResponseSink.in");
+    private final SinkShape<ByteString> shape = SinkShape.of(in);
+
+    private final ResponseWriter writer;
+    private final long flushDelayMillis;
+
+    public ResponseSink(ResponseWriter writer, long flushDelayMillis) {
+        this.writer = writer;
+        this.flushDelayMillis = flushDelayMillis;
+    }
+
+    @Override
+    public SinkShape<ByteString> shape() {
+        return shape;
+    }
+
+    @Override
+    public Tuple2<GraphStageLogic, CompletionStage<Done>> createLogicAndMaterializedValue(Attributes inheritedAttributes) {
+        CompletableFuture<Done> done = new CompletableFuture<>();
+        GraphStageLogic logic = new TimerGraphStageLogic(shape) {
+
+            private ByteString pending = ByteString.empty();
+            private boolean flushRequested = false;
+            private boolean finishing = false;
+
+            {
+                setHandler(in, new AbstractInHandler() {
+                    @Override
+                    public void onPush() throws Exception {
+                        pending = grab(in);
+                        flushRequested = flushRequested || flushDelayMillis <= 0;
+                        if (writer.isReady()) {
+                            onWritable();
+                        }
+                    }
+
+                    @Override
+                    public void onUpstreamFinish() throws Exception {
+                        finishing = true;
+                        if (writer.isReady()) {
+                            onWritable();
+                        }
+                    }
+
+                    @Override
+                    public void onUpstreamFailure(Throwable t) throws Exception {
+                        failWith(t);
+                    }
+                });
+            }
+
+            @Override
+            public void preStart() throws Exception {
+                // the stage has to outlive upstream completion until the last bytes are flushed
+                setKeepGoing(true);
+                AsyncCallback<Done> writable = createAsyncCallback(d -> onWritable());
+                AsyncCallback<Throwable> error = createAsyncCallback(this::failWith);
+                writer.start(() -> writable.invoke(Done.getInstance()), error::invoke);
+            }
+
+            private void onWritable() {
+                try {
+                    if (pending.nonEmpty()) {
+                        pending = writer.write(pending);
+                        if (pending.nonEmpty()) {
+                            return;
+                        }
+                    }
+                    if (finishing) {
+                        if (writer.flush()) {
+                            done.complete(Done.getInstance());
+                            completeStage();
+                        }
+                        return;
+                    }
+                    if (flushRequested) {
+                        if (!writer.flush()) {
+                            return;
+                        }
+                        flushRequested = false;
+                    }
+                    if (writer.hasUnflushedBytes() && !isTimerActive(FLUSH_TIMER)) {
+                        scheduleOnce(FLUSH_TIMER, FiniteDuration.create(flushDelayMillis, TimeUnit.MILLISECONDS));
+                    }
+                    if (!hasBeenPulled(in) && !isClosed(in)) {
+                        pull(in);
+                    }
+                } catch (Exception e) {
+                    failWith(e);
+                }
+            }
+
+            @Override
+            public void onTimer(Object timerKey) throws Exception {
+                flushRequested = true;
+                if (pending.isEmpty() && writer.isReady()) {
+                    onWritable();
+                }
+            }
+
+            private void failWith(Throwable t) {
+                done.completeExceptionally(t);
+                failStage(t);
+            }
+
+            @Override
+            public void postStop() throws Exception {
+                if (!done.isDone()) {
+                    done.completeExceptionally(new IllegalStateException("Response stream stopped before completion"));
+                }
+            }
+        };
+        return new Tuple2<>(logic, done);
+    }
+}
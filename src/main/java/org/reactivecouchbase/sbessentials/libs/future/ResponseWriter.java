@@ -0,0 +1,171 @@
+package org.reactivecouchbase.sbessentials.libs.future;
+
+import akka.Done;
+import akka.util.ByteIterator;
+import akka.util.ByteString;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+
+/**
+ * Writes the body of a response straight to the servlet output stream, in non-blocking mode.
+ *
+ * Small chunks are copied from their ByteString into a single write buffer, so they are coalesced and no
+ * intermediate array is allocated per chunk. Chunks at least as large as the buffer are written from their own
+ * buffers, one write per buffer. Bytes are only handed to the container when the output stream is ready, so a
+ * slow client never blocks a thread nor makes data pile up: the caller is notified when the stream becomes
+ * writable again.
+ */
+public class ResponseWriter implements WriteListener {
+
+    private final ServletOutputStream out;
+    private final byte[] buffer;
+    private int position = 0;
+    private boolean unflushed = false;
+
+    private volatile Runnable onWritable = () -> {};
+    private volatile Consumer<Throwable> onError = t -> {};
+
+    public ResponseWriter(ServletOutputStream out, int bufferSize) {
+        this.out = out;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Switches the output stream to non-blocking mode. `onWritable` is called by the container
+     * each time the stream can accept more data.
+     */
+    public void start(Runnable onWritable, Consumer<Throwable> onError) {
+        this.onWritable = onWritable;
+        this.onError = onError;
+        out.setWriteListener(this);
+    }
+
+    /**
+     * Writes a whole in-memory body straight from its buffers, one write per buffer, then flushes it.
+     */
+    public CompletionStage<Done> writeStrict(ByteString body) {
+        CompletableFuture<Done> done = new CompletableFuture<>();
+        ByteString[] pending = new ByteString[] { body };
+        start(() -> {
+            if (done.isDone()) {
+                return;
+            }
+            try {
+                pending[0] = writeDirect(pending[0]);
+                if (pending[0].isEmpty() && flush()) {
+                    done.complete(Done.getInstance());
+                }
+            } catch (Exception e) {
+                done.completeExceptionally(e);
+            }
+        }, done::completeExceptionally);
+        return done;
+    }
+
+    public boolean isReady() {
+        return out.isReady();
+    }
+
+    /**
+     * Copies as many bytes as possible in the write buffer.
+     *
+     * @return the bytes that could not be written because the output stream is not ready,
+     *         the writer will be notified when they can be written
+     */
+    public ByteString write(ByteString bytes) throws IOException {
+        ByteIterator iterator = bytes.iterator();
+        int remaining = bytes.length();
+        while (remaining > 0) {
+            if (position == buffer.length) {
+                if (!out.isReady()) {
+                    return bytes.drop(bytes.length() - remaining);
+                }
+                drain();
+            }
+            if (position == 0 && remaining >= buffer.length) {
+                return writeDirect(bytes.drop(bytes.length() - remaining));
+            }
+            int size = Math.min(remaining, buffer.length - position);
+            iterator.getBytes(buffer, position, size);
+            position = position + size;
+            remaining = remaining - size;
+            unflushed = true;
+        }
+        return ByteString.empty();
+    }
+
+    /**
+     * Writes the buffers of the bytes straight to the output stream, bypassing the write buffer.
+     *
+     * @return the bytes that could not be written because the output stream is not ready
+     */
+    private ByteString writeDirect(ByteString bytes) throws IOException {
+        int written = 0;
+        for (ByteBuffer segment : bytes.getByteBuffers()) {
+            if (!out.isReady()) {
+                return bytes.drop(written);
+            }
+            int length = segment.remaining();
+            if (segment.hasArray()) {
+                out.write(segment.array(), segment.arrayOffset() + segment.position(), length);
+            } else {
+                // ByteStrings only expose read-only views of their arrays, the segment is copied at once
+                byte[] copy = new byte[length];
+                segment.get(copy);
+                out.write(copy, 0, length);
+            }
+            written = written + length;
+            unflushed = true;
+        }
+        return ByteString.empty();
+    }
+
+    /**
+     * @return true if some bytes have been written since the last flush
+     */
+    public boolean hasUnflushedBytes() {
+        return unflushed;
+    }
+
+    /**
+     * @return true if the flush is done, false if it has to be retried once the output stream is writable
+     */
+    public boolean flush() throws IOException {
+        if (!out.isReady()) {
+            return false;
+        }
+        drain();
+        if (!out.isReady()) {
+            return false;
+        }
+        out.flush();
+        if (!out.isReady()) {
+            return false;
+        }
+        unflushed = false;
+        return true;
+    }
+
+    private void drain() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+        onWritable.run();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        onError.accept(t);
+    }
+}
@@ -1,31 +1,57 @@
 package org.reactivecouchbase.sbessentials.libs.json;
 
-import com.google.common.base.Charsets;
-import com.google.common.io.CharStreams;
+import com.google.common.io.ByteStreams;
 import org.reactivecouchbase.json.JsValue;
 import org.reactivecouchbase.json.Json;
 import org.springframework.http.HttpInputMessage;
 import org.springframework.http.HttpOutputMessage;
 import org.springframework.http.MediaType;
-import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.GenericHttpMessageConverter;
 import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.http.converter.HttpMessageNotWritableException;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
-public class JsonMessageConverter implements HttpMessageConverter<JsValue> {
+/**
+ * Reads and writes JsValues, and writes `Iterable<JsValue>` as streamed JSON arrays.
+ *
+ * Media types are matched ignoring their parameters, so `application/json;charset=UTF-8`, `application/*+json`
+ * or suffixed types like `application/vnd.api+json` are handled as well.
+ */
+public class JsonMessageConverter implements GenericHttpMessageConverter<Object> {
+
+    private static final MediaType APPLICATION_ANY_JSON = new MediaType("application", "*+json");
+
+    private static final byte[] ARRAY_START = { '[' };
+    private static final byte[] ARRAY_SEPARATOR = { ',' };
+    private static final byte[] ARRAY_END = { ']' };
 
     @Override
     public boolean canRead(Class<?> clazz, MediaType mediaType) {
-        return JsValue.class.isAssignableFrom(clazz) && (mediaType.equals(MediaType.APPLICATION_JSON) || mediaType.equals(MediaType.APPLICATION_JSON_UTF8));
+        return JsValue.class.isAssignableFrom(clazz) && supports(mediaType);
+    }
+
+    @Override
+    public boolean canRead(Type type, Class<?> contextClass, MediaType mediaType) {
+        return type instanceof Class && canRead((Class<?>) type, mediaType);
     }
 
     @Override
     public boolean canWrite(Class<?> clazz, MediaType mediaType) {
-        return JsValue.class.isAssignableFrom(clazz) && (mediaType.equals(MediaType.APPLICATION_JSON) || mediaType.equals(MediaType.APPLICATION_JSON_UTF8));
+        return JsValue.class.isAssignableFrom(clazz) && supports(mediaType);
+    }
+
+    @Override
+    public boolean canWrite(Type type, Class<?> clazz, MediaType mediaType) {
+        return (JsValue.class.isAssignableFrom(clazz) || isIterableOfJsValues(type)) && supports(mediaType);
     }
 
     @Override
@@ -33,18 +59,84 @@ public class JsonMessageConverter implements HttpMessageConverter<JsValue> {
         List<MediaType> types = new ArrayList<>();
         types.add(MediaType.APPLICATION_JSON);
         types.add(MediaType.APPLICATION_JSON_UTF8);
+        types.add(APPLICATION_ANY_JSON);
         return types;
     }
 
     @Override
-    public JsValue read(Class<? extends JsValue> clazz, HttpInputMessage inputMessage) throws IOException, HttpMessageNotReadableException {
-        String body = CharStreams.toString(new InputStreamReader(inputMessage.getBody(), Charsets.UTF_8));
-        return Json.parse(body);
+    public Object read(Class<?> clazz, HttpInputMessage inputMessage) throws IOException, HttpMessageNotReadableException {
+        MediaType contentType = inputMessage.getHeaders().getContentType();
+        Charset charset = contentType == null || contentType.getCharset() == null ? StandardCharsets.UTF_8 : contentType.getCharset();
+        // json-lib only parses Strings, decode the raw bytes at once rather than through a Reader
+        byte[] body = ByteStreams.toByteArray(inputMessage.getBody());
+        try {
+            return Json.parse(new String(body, charset));
+        } catch (Exception e) {
+            throw new HttpMessageNotReadableException("Could not parse JSON body", e);
+        }
+    }
+
+    @Override
+    public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage) throws IOException, HttpMessageNotReadableException {
+        return read((Class<?>) type, inputMessage);
+    }
+
+    @Override
+    public void write(Object value, MediaType contentType, HttpOutputMessage outputMessage) throws IOException, HttpMessageNotWritableException {
+        write(value, null, contentType, outputMessage);
     }
 
+    @SuppressWarnings("unchecked")
     @Override
-    public void write(JsValue jsValue, MediaType contentType, HttpOutputMessage outputMessage) throws IOException, HttpMessageNotWritableException {
-        outputMessage.getHeaders().set("Content-Type", "application/json;charset=UTF-8");
-        outputMessage.getBody().write(Json.stringify(jsValue).getBytes("UTF-8"));
+    public void write(Object value, Type type, MediaType contentType, HttpOutputMessage outputMessage) throws IOException, HttpMessageNotWritableException {
+        // keep the negotiated type, like application/vnd.api+json, unless it is a wildcard
+        MediaType mediaType = contentType == null || !contentType.isConcrete()
+                ? MediaType.APPLICATION_JSON_UTF8
+                : new MediaType(contentType.getType(), contentType.getSubtype(), StandardCharsets.UTF_8);
+        outputMessage.getHeaders().setContentType(mediaType);
+        OutputStream out = outputMessage.getBody();
+        if (value instanceof JsValue) {
+            JsonWriter.write((JsValue) value, out);
+        } else if (value instanceof Iterable) {
+            out.write(ARRAY_START);
+            boolean first = true;
+            for (JsValue element : (Iterable<JsValue>) value) {
+                if (!first) {
+                    out.write(ARRAY_SEPARATOR);
+                }
+                first = false;
+                JsonWriter.write(element, out);
+            }
+            out.write(ARRAY_END);
+        } else {
+            throw new HttpMessageNotWritableException("Can not write " + value.getClass().getName() + " as JSON");
+        }
+    }
+
+    private static boolean supports(MediaType mediaType) {
+        if (mediaType == null || MediaType.APPLICATION_JSON.isCompatibleWith(mediaType)) {
+            return true;
+        }
+        // structured syntax suffix, like application/vnd.api+json
+        return (mediaType.isWildcardType() || "application".equals(mediaType.getType())) && mediaType.getSubtype().endsWith("+json");
+    }
+
+    /**
+     * @return true for `Iterable<JsValue>` and its subtypes
+     */
+    private static boolean isIterableOfJsValues(Type type) {
+        if (!(type instanceof ParameterizedType)) {
+            return false;
+        }
+        ParameterizedType parameterized = (ParameterizedType) type;
+        Type raw = parameterized.getRawType();
+        if (!(raw instanceof Class) || !Iterable.class.isAssignableFrom((Class<?>) raw)) {
+            return false;
+        }
+        Type element = parameterized.getActualTypeArguments()[0];
+        if (element instanceof WildcardType) {
+            element = ((WildcardType) element).getUpperBounds()[0];
+        }
+        return element instanceof Class && JsValue.class.isAssignableFrom((Class<?>) element);
     }
-}
\ No newline at end of file
+}
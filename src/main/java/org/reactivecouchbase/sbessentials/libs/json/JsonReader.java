@@ -0,0 +1,31 @@
+package org.reactivecouchbase.sbessentials.libs.json;
+
+import akka.NotUsed;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.JsonFraming;
+import akka.util.ByteString;
+import org.reactivecouchbase.json.JsValue;
+import org.reactivecouchbase.json.Json;
+
+/**
+ * Incremental parsing of streamed JSON documents.
+ */
+public class JsonReader {
+
+    public static final int DEFAULT_MAX_OBJECT_LENGTH = 1024 * 1024;
+
+    /**
+     * @return a flow emitting each JSON object of the stream as soon as it is complete, the objects being either
+     * newline delimited (NDJSON) or the elements of a top-level array. Only the object being parsed is kept in memory,
+     * the stream fails if one of them is longer than `maxObjectLength` bytes.
+     */
+    public static Flow<ByteString, JsValue, NotUsed> objects(int maxObjectLength) {
+        return Flow.<ByteString>create()
+                .via(JsonFraming.objectScanner(maxObjectLength))
+                .map(bytes -> Json.parse(bytes.utf8String()));
+    }
+
+    public static Flow<ByteString, JsValue, NotUsed> objects() {
+        return objects(DEFAULT_MAX_OBJECT_LENGTH);
+    }
+}
@@ -0,0 +1,232 @@
+package org.reactivecouchbase.sbessentials.libs.json;
+
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import org.reactivecouchbase.json.JsArray;
+import org.reactivecouchbase.json.JsBoolean;
+import org.reactivecouchbase.json.JsNumber;
+import org.reactivecouchbase.json.JsObject;
+import org.reactivecouchbase.json.JsString;
+import org.reactivecouchbase.json.JsUndefined;
+import org.reactivecouchbase.json.JsValue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+/**
+ * Serializes JsValue trees straight to UTF-8 bytes, without building an intermediate String.
+ *
+ * Bytes are written in a per-thread scratch buffer that is copied out in chunks, so serializing
+ * a document only allocates its resulting ByteString.
+ */
+public class JsonWriter {
+
+    public static final String NDJSON = "application/x-ndjson";
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] NULL = "null".getBytes();
+    private static final byte[] TRUE = "true".getBytes();
+    private static final byte[] FALSE = "false".getBytes();
+
+    private static final ByteString NEW_LINE = ByteString.fromString("\n");
+    private static final ByteString ARRAY_START = ByteString.fromString("[");
+    private static final ByteString ARRAY_SEPARATOR = ByteString.fromString(",");
+    private static final ByteString ARRAY_END = ByteString.fromString("]");
+
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[CHUNK_SIZE]);
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int position = 0;
+
+    private JsonWriter(OutputStream out) {
+        this.out = out;
+        this.buffer = SCRATCH.get();
+    }
+
+    /**
+     * @return the UTF-8 encoded JSON form of the value
+     */
+    public static ByteString toBytes(JsValue value) {
+        ByteStringBuilder builder = ByteString.createBuilder();
+        write(value, builder);
+        return builder.result();
+    }
+
+    /**
+     * Appends the UTF-8 encoded JSON form of the value to the builder.
+     */
+    public static void write(JsValue value, ByteStringBuilder builder) {
+        JsonWriter writer = new JsonWriter(builder.asOutputStream());
+        writer.value(value);
+        writer.flush();
+    }
+
+    /**
+     * Writes the UTF-8 encoded JSON form of the value to the stream, chunk by chunk.
+     */
+    public static void write(JsValue value, OutputStream out) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        try {
+            writer.value(value);
+            writer.flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return a stream of newline delimited JSON documents, one per value
+     */
+    public static <Mat> Source<ByteString, Mat> ndjson(Source<JsValue, Mat> values) {
+        return values.map(value -> {
+            ByteStringBuilder builder = ByteString.createBuilder();
+            write(value, builder);
+            builder.append(NEW_LINE);
+            return builder.result();
+        });
+    }
+
+    /**
+     * @return a stream of bytes forming one JSON array containing all the values
+     */
+    public static <Mat> Source<ByteString, Mat> array(Source<JsValue, Mat> values) {
+        return values.map(JsonWriter::toBytes).intersperse(ARRAY_START, ARRAY_SEPARATOR, ARRAY_END);
+    }
+
+    public static Source<ByteString, NotUsed> array(Iterable<JsValue> values) {
+        return array(Source.from(values));
+    }
+
+    private void value(JsValue value) {
+        if (value instanceof JsObject) {
+            object((JsObject) value);
+        } else if (value instanceof JsArray) {
+            array((JsArray) value);
+        } else if (value instanceof JsString) {
+            string(((JsString) value).value);
+        } else if (value instanceof JsNumber) {
+            ascii(((JsNumber) value).value.toString());
+        } else if (value instanceof JsBoolean) {
+            raw(((JsBoolean) value).value ? TRUE : FALSE);
+        } else {
+            raw(NULL);
+        }
+    }
+
+    private void object(JsObject object) {
+        put('{');
+        boolean first = true;
+        for (Map.Entry<String, JsValue> field : object.values.entrySet()) {
+            if (field.getValue() instanceof JsUndefined) {
+                continue;
+            }
+            if (!first) {
+                put(',');
+            }
+            first = false;
+            string(field.getKey());
+            put(':');
+            value(field.getValue());
+        }
+        put('}');
+    }
+
+    private void array(JsArray array) {
+        put('[');
+        boolean first = true;
+        for (JsValue value : array.values) {
+            if (!first) {
+                put(',');
+            }
+            first = false;
+            value(value);
+        }
+        put(']');
+    }
+
+    private void string(String value) {
+        put('"');
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                put('\\');
+                put(c);
+            } else if (c < 0x20) {
+                escape(c);
+            } else if (c < 0x80) {
+                put(c);
+            } else if (c < 0x800) {
+                put(0xc0 | (c >> 6));
+                put(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                put(0xf0 | (codePoint >> 18));
+                put(0x80 | ((codePoint >> 12) & 0x3f));
+                put(0x80 | ((codePoint >> 6) & 0x3f));
+                put(0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // lone surrogates can not be encoded in UTF-8
+                escape(c);
+            } else {
+                put(0xe0 | (c >> 12));
+                put(0x80 | ((c >> 6) & 0x3f));
+                put(0x80 | (c & 0x3f));
+            }
+        }
+        put('"');
+    }
+
+    private void escape(char c) {
+        put('\\');
+        switch (c) {
+            case '\n': put('n'); break;
+            case '\r': put('r'); break;
+            case '\t': put('t'); break;
+            case '\b': put('b'); break;
+            case '\f': put('f'); break;
+            default:
+                put('u');
+                put(HEX[(c >> 12) & 0xf]);
+                put(HEX[(c >> 8) & 0xf]);
+                put(HEX[(c >> 4) & 0xf]);
+                put(HEX[c & 0xf]);
+        }
+    }
+
+    private void ascii(String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            put(value.charAt(i));
+        }
+    }
+
+    private void raw(byte[] bytes) {
+        for (byte b : bytes) {
+            put(b);
+        }
+    }
+
+    private void put(int b) {
+        if (position == buffer.length) {
+            flush();
+        }
+        buffer[position++] = (byte) b;
+    }
+
+    private void flush() {
+        try {
+            out.write(buffer, 0, position);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        position = 0;
+    }
+}
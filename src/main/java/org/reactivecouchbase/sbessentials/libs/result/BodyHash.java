@@ -0,0 +1,24 @@
+package org.reactivecouchbase.sbessentials.libs.result;
+
+import akka.util.ByteIterator;
+import akka.util.ByteString;
+
+/**
+ * Fast, non-cryptographic 64 bits hash (FNV-1a) of in-memory bodies.
+ */
+public class BodyHash {
+
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    public static long of(ByteString bytes) {
+        long hash = OFFSET_BASIS;
+        ByteIterator iterator = bytes.iterator();
+        int length = bytes.length();
+        for (int i = 0; i < length; i++) {
+            hash ^= (iterator.getByte() & 0xff);
+            hash *= PRIME;
+        }
+        return hash;
+    }
+}
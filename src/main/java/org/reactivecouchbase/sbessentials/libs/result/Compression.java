@@ -0,0 +1,352 @@
+package org.reactivecouchbase.sbessentials.libs.result;
+
+import akka.stream.Attributes;
+import akka.stream.FlowShape;
+import akka.stream.Inlet;
+import akka.stream.Outlet;
+import akka.stream.javadsl.Flow;
+import akka.stream.stage.AbstractInHandler;
+import akka.stream.stage.AbstractOutHandler;
+import akka.stream.stage.GraphStage;
+import akka.stream.stage.GraphStageLogic;
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import javaslang.collection.HashSet;
+import javaslang.collection.List;
+import org.reactivecouchbase.common.Throwables;
+import org.reactivecouchbase.functional.Option;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * gzip / deflate encoding of Result bodies.
+ *
+ * In-memory bodies are compressed at once and their compressed forms are kept in a LRU cache bounded in bytes,
+ * so constant responses are only compressed once. Streamed bodies are compressed chunk by chunk, each chunk
+ * being flushed so the body is never buffered.
+ */
+public class Compression {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final HashSet<String> COMPRESSED_TYPES = HashSet.of(
+        "application/zip",
+        "application/gzip",
+        "application/x-gzip",
+        "application/x-bzip2",
+        "application/x-7z-compressed",
+        "application/x-rar-compressed",
+        "multipart/byteranges"
+    );
+
+    private static final byte[] GZIP_HEADER = new byte[] { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private final int minSize;
+    private final int level;
+    private final Cache<CacheKey, ByteString> cache;
+
+    public Compression(int minSize, int level, long maxCachedBytes) {
+        this.minSize = minSize;
+        this.level = level;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxCachedBytes)
+                .weigher((CacheKey key, ByteString value) -> key.body.length() + value.length())
+                .build();
+    }
+
+    /**
+     * @return the preferred supported encoding in an `Accept-Encoding` header
+     */
+    public static Option<String> negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return Option.none();
+        }
+        // -1 when the coding is not listed, `*` only stands for the codings that are not
+        double gzip = -1.0;
+        double deflate = -1.0;
+        double any = 0.0;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.trim().split(";");
+            String coding = params[0].trim().toLowerCase();
+            double quality = 1.0;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0.0;
+                    }
+                }
+            }
+            if (coding.equals(GZIP) || coding.equals("x-gzip")) {
+                gzip = quality;
+            } else if (coding.equals(DEFLATE)) {
+                deflate = quality;
+            } else if (coding.equals("*")) {
+                any = quality;
+            }
+        }
+        gzip = gzip < 0.0 ? any : gzip;
+        deflate = deflate < 0.0 ? any : deflate;
+        if (gzip > 0.0 && gzip >= deflate) {
+            return Option.some(GZIP);
+        }
+        if (deflate > 0.0) {
+            return Option.some(DEFLATE);
+        }
+        return Option.none();
+    }
+
+    /**
+     * @param acceptedCodings the content codings accepted by the client, by decreasing quality
+     * @param refusedCodings the content codings the client refuses with a quality of 0, which `*` does not stand for
+     * @return the preferred supported encoding
+     */
+    public static Option<String> negotiate(List<String> acceptedCodings, List<String> refusedCodings) {
+        for (String coding : acceptedCodings) {
+            if (coding.equals(GZIP) || coding.equals("x-gzip")) {
+                return Option.some(GZIP);
+            }
+            if (coding.equals(DEFLATE)) {
+                return Option.some(DEFLATE);
+            }
+            if (coding.equals("*")) {
+                // codings listed with a lower quality are not covered by `*`
+                if (!isListed(GZIP, acceptedCodings) && !isListed(GZIP, refusedCodings)) {
+                    return Option.some(GZIP);
+                }
+                if (!isListed(DEFLATE, acceptedCodings) && !isListed(DEFLATE, refusedCodings)) {
+                    return Option.some(DEFLATE);
+                }
+            }
+        }
+        return Option.none();
+    }
+
+    private static boolean isListed(String coding, List<String> codings) {
+        return codings.contains(coding) || (coding.equals(GZIP) && codings.contains("x-gzip"));
+    }
+
+    /**
+     * Encodes the body of the result according to the `Accept-Encoding` header of the request.
+     * Results that are already encoded, too small, or of an already compressed content type are returned untouched.
+     */
+    public Result compress(Result result, Option<String> acceptEncoding) {
+        return encode(result, acceptEncoding.flatMap(Compression::negotiate));
+    }
+
+    /**
+     * Same as {@link #compress(Result, Option)}, with the content codings accepted by the client, by decreasing quality,
+     * and the ones it refuses.
+     */
+    public Result compress(Result result, List<String> acceptedCodings, List<String> refusedCodings) {
+        return encode(result, negotiate(acceptedCodings, refusedCodings));
+    }
+
+    private Result encode(Result result, Option<String> encoding) {
+        if (encoding.isEmpty() || !isCompressible(result)) {
+            return result;
+        }
+        String coding = encoding.get();
+        Result.Builder builder = Result.copy(result);
+        if (result.strictBody.isDefined()) {
+            ByteString body = result.strictBody.get();
+            try {
+                builder.withStrictBody(cache.get(new CacheKey(coding, body), () -> compressStrict(coding, body)));
+            } catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+        } else {
+            builder.withSource(result.source.via(flow(coding)));
+        }
+        return builder
+                .withHeaders(result.headers.remove("Content-Length"))
+                .build()
+                .withHeader("Content-Encoding", coding)
+                .withHeader("Vary", "Accept-Encoding");
+    }
+
+    private boolean isCompressible(Result result) {
+        if (result.headers.containsKey("Content-Encoding") || result.status == 204 || result.status == 304) {
+            return false;
+        }
+        for (Long length : result.contentLength()) {
+            if (length < minSize) {
+                return false;
+            }
+        }
+        String mediaType = result.contentType == null ? "" : result.contentType.split(";")[0].trim().toLowerCase();
+        if (mediaType.startsWith("image/")) {
+            return mediaType.equals("image/svg+xml");
+        }
+        return !(mediaType.startsWith("video/") || mediaType.startsWith("audio/") || COMPRESSED_TYPES.contains(mediaType));
+    }
+
+    private ByteString compressStrict(String coding, ByteString body) {
+        Deflater deflater = new Deflater(level, coding.equals(GZIP));
+        try {
+            ByteStringBuilder builder = ByteString.createBuilder();
+            if (coding.equals(GZIP)) {
+                builder.putBytes(GZIP_HEADER);
+            }
+            byte[] input = body.toArray();
+            deflater.setInput(input);
+            deflater.finish();
+            drain(deflater, true, builder);
+            if (coding.equals(GZIP)) {
+                CRC32 crc = new CRC32();
+                crc.update(input);
+                builder.putInt((int) crc.getValue(), ByteOrder.LITTLE_ENDIAN);
+                builder.putInt(input.length, ByteOrder.LITTLE_ENDIAN);
+            }
+            return builder.result();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @return a flow encoding a stream of bytes with the given coding
+     */
+    public Flow<ByteString, ByteString, ?> flow(String coding) {
+        return Flow.fromGraph(new DeflateStage(level, coding.equals(GZIP)));
+    }
+
+    /**
+     * Moves the compressed bytes out of the deflater, either until the pending input is flushed
+     * or, once the deflater is finishing, until the end of the compressed data.
+     */
+    private static void drain(Deflater deflater, boolean finishing, ByteStringBuilder builder) {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        while (true) {
+            int size = deflater.deflate(chunk, 0, chunk.length, finishing ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+            builder.putBytes(chunk, 0, size);
+            if (finishing ? deflater.finished() : size < chunk.length) {
+                return;
+            }
+        }
+    }
+
+    private static class CacheKey {
+
+        private final String coding;
+        private final ByteString body;
+        private final long hash;
+
+        private CacheKey(String coding, ByteString body) {
+            this.coding = coding;
+            this.body = body;
+            this.hash = BodyHash.of(body);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return hash == other.hash
+                    && coding.equals(other.coding)
+                    && body.length() == other.body.length()
+                    && body.asByteBuffer().equals(other.body.asByteBuffer());
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hash ^ (hash >>> 32)) * 31 + coding.hashCode();
+        }
+    }
+
+    private static class DeflateStage extends GraphStage<FlowShape<ByteString, ByteString>> {
+
+        private final Inlet<ByteString> in = Inlet.create("Deflate.in");
+        private final Outlet<ByteString> out = Outlet.create("Deflate.out");
+        private final FlowShape<ByteString, ByteString> shape = FlowShape.of(in, out);
+
+        private final int level;
+        private final boolean gzip;
+
+        private DeflateStage(int level, boolean gzip) {
+            this.level = level;
+            this.gzip = gzip;
+        }
+
+        @Override
+        public FlowShape<ByteString, ByteString> shape() {
+            return shape;
+        }
+
+        @Override
+        public GraphStageLogic createLogic(Attributes inheritedAttributes) {
+            return new GraphStageLogic(shape) {
+
+                private final Deflater deflater = new Deflater(level, gzip);
+                private final CRC32 crc = new CRC32();
+                private boolean headerWritten = false;
+
+                {
+                    setHandler(in, new AbstractInHandler() {
+                        @Override
+                        public void onPush() throws Exception {
+                            byte[] input = grab(in).toArray();
+                            crc.update(input);
+                            deflater.setInput(input);
+                            ByteStringBuilder builder = start();
+                            drain(deflater, false, builder);
+                            ByteString compressed = builder.result();
+                            if (compressed.isEmpty()) {
+                                pull(in);
+                            } else {
+                                push(out, compressed);
+                            }
+                        }
+
+                        @Override
+                        public void onUpstreamFinish() throws Exception {
+                            ByteStringBuilder builder = start();
+                            deflater.finish();
+                            drain(deflater, true, builder);
+                            if (gzip) {
+                                builder.putInt((int) crc.getValue(), ByteOrder.LITTLE_ENDIAN);
+                                builder.putInt((int) deflater.getBytesRead(), ByteOrder.LITTLE_ENDIAN);
+                            }
+                            emit(out, builder.result(), () -> completeStage());
+                        }
+                    });
+                    setHandler(out, new AbstractOutHandler() {
+                        @Override
+                        public void onPull() throws Exception {
+                            pull(in);
+                        }
+                    });
+                }
+
+                private ByteStringBuilder start() {
+                    ByteStringBuilder builder = ByteString.createBuilder();
+                    if (gzip && !headerWritten) {
+                        builder.putBytes(GZIP_HEADER);
+                        headerWritten = true;
+                    }
+                    return builder;
+                }
+
+                @Override
+                public void postStop() throws Exception {
+                    deflater.end();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package org.reactivecouchbase.sbessentials.libs.result;
+
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.StreamConverters;
+import akka.util.ByteString;
+import com.google.common.io.ByteStreams;
+import javaslang.collection.List;
+import org.reactivecouchbase.functional.Option;
+import org.springframework.http.HttpStatus;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.File;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Support for `Range` requests (RFC 7233) on results whose length is known up front,
+ * ie. file and in-memory bodies. Each range only reads the requested slice of the body.
+ */
+public class Ranges {
+
+    private static final int MAX_RANGES = 16;
+
+    private static final int FILE_CHUNK_SIZE = 64 * 1024;
+
+    public static class ByteRange {
+
+        public final long start;
+        public final long end;
+
+        public ByteRange(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public long length() {
+            return end - start + 1;
+        }
+
+        public String toString() {
+            return start + "-" + end;
+        }
+    }
+
+    /**
+     * Parses a `Range` header for a body of the given length.
+     *
+     * @return nothing if the header has to be ignored, an empty list if no range can be satisfied,
+     *         the satisfiable ranges otherwise
+     */
+    public static Option<List<ByteRange>> parse(String header, long length) {
+        if (header == null || !header.trim().startsWith("bytes=")) {
+            return Option.none();
+        }
+        String[] specs = header.trim().substring("bytes=".length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            return Option.none();
+        }
+        List<ByteRange> ranges = List.empty();
+        try {
+            for (String raw : specs) {
+                String spec = raw.trim();
+                int dash = spec.indexOf('-');
+                if (dash < 0) {
+                    return Option.none();
+                }
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                long start;
+                long end;
+                if (first.isEmpty()) {
+                    if (last.isEmpty()) {
+                        return Option.none();
+                    }
+                    long suffix = Long.parseLong(last);
+                    if (suffix <= 0) {
+                        continue;
+                    }
+                    start = Math.max(0L, length - suffix);
+                    end = length - 1;
+                } else {
+                    start = Long.parseLong(first);
+                    end = length - 1;
+                    if (!last.isEmpty()) {
+                        long lastPos = Long.parseLong(last);
+                        if (lastPos < start) {
+                            return Option.none();
+                        }
+                        end = Math.min(lastPos, length - 1);
+                    }
+                }
+                if (start < 0) {
+                    return Option.none();
+                }
+                if (start >= length) {
+                    continue;
+                }
+                ranges = ranges.append(new ByteRange(start, end));
+            }
+        } catch (NumberFormatException e) {
+            return Option.none();
+        }
+        return Option.some(ranges);
+    }
+
+    /**
+     * Honors the `Range` and `If-Range` headers of the request if the result is a `200 OK` with a known length.
+     * Other results are returned untouched.
+     */
+    public static Result apply(Result result, HttpServletRequest request) {
+        Option<Long> maybeLength = result.contentLength();
+        if (result.status != HttpStatus.OK.value() || maybeLength.isEmpty()) {
+            return result;
+        }
+        long length = maybeLength.get();
+        Result full = result.headers.containsKey("Accept-Ranges") ? result : result.withHeader("Accept-Ranges", "bytes");
+        String rangeHeader = request.getHeader("Range");
+        if (rangeHeader == null || !"GET".equalsIgnoreCase(request.getMethod())) {
+            return full;
+        }
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange != null && !ifRangeMatches(result, ifRange.trim())) {
+            return full;
+        }
+        Option<List<ByteRange>> parsed = parse(rangeHeader, length);
+        if (parsed.isEmpty()) {
+            return full;
+        }
+        List<ByteRange> ranges = parsed.get();
+        if (ranges.isEmpty()) {
+            return Result.copy(full)
+                    .withStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value())
+                    .withStrictBody(ByteString.empty())
+                    .build()
+                    .withHeader("Content-Range", "bytes */" + length);
+        }
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.head();
+            return slice(full, range)
+                    .withHeader("Content-Range", "bytes " + range + "/" + length);
+        }
+        return multipart(full, ranges, length);
+    }
+
+    private static boolean ifRangeMatches(Result result, String ifRange) {
+        if (ifRange.startsWith("W/")) {
+            return false;
+        }
+        if (ifRange.startsWith("\"")) {
+            return result.headers.get("ETag").map(etags -> etags.contains(ifRange)).getOrElse(false);
+        }
+        return result.headers.get("Last-Modified").map(dates -> dates.contains(ifRange)).getOrElse(false);
+    }
+
+    private static Result slice(Result result, ByteRange range) {
+        for (ByteString bytes : result.strictBody) {
+            return Result.copy(result)
+                    .withStatus(HttpStatus.PARTIAL_CONTENT.value())
+                    .withStrictBody(bytes.slice((int) range.start, (int) range.end + 1))
+                    .build();
+        }
+        return Result.copy(result)
+                .withStatus(HttpStatus.PARTIAL_CONTENT.value())
+                .withSource(bodySlice(result, range))
+                .build()
+                .withHeader("Content-Length", String.valueOf(range.length()));
+    }
+
+    private static Result multipart(Result result, List<ByteRange> ranges, long length) {
+        String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong()) + Long.toHexString(System.nanoTime());
+        Source<ByteString, ?> body = Source.<ByteString>empty();
+        long bodyLength = 0L;
+        for (ByteRange range : ranges) {
+            ByteString partHeader = ByteString.fromString(
+                "\r\n--" + boundary + "\r\n"
+                + "Content-Type: " + result.contentType + "\r\n"
+                + "Content-Range: bytes " + range + "/" + length + "\r\n\r\n"
+            );
+            body = body.concat(Source.single(partHeader)).concat(bodySlice(result, range));
+            bodyLength = bodyLength + partHeader.length() + range.length();
+        }
+        ByteString end = ByteString.fromString("\r\n--" + boundary + "--\r\n");
+        return Result.copy(result)
+                .withStatus(HttpStatus.PARTIAL_CONTENT.value())
+                .withSource(body.concat(Source.single(end)))
+                .withContentType("multipart/byteranges; boundary=" + boundary)
+                .build()
+                .withHeader("Content-Length", String.valueOf(bodyLength + end.length()));
+    }
+
+    private static Source<ByteString, ?> bodySlice(Result result, ByteRange range) {
+        for (ByteString bytes : result.strictBody) {
+            return Source.single(bytes.slice((int) range.start, (int) range.end + 1));
+        }
+        File file = result.file.get();
+        return StreamConverters.fromInputStream(() -> {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ).position(range.start);
+            return ByteStreams.limit(Channels.newInputStream(channel), range.length());
+        }, FILE_CHUNK_SIZE);
+    }
+}
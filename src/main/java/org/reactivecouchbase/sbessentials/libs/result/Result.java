@@ -1,46 +1,51 @@
 package org.reactivecouchbase.sbessentials.libs.result;
 
-import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.FileIO;
 import akka.stream.javadsl.Source;
 import akka.stream.javadsl.StreamConverters;
 import akka.util.ByteString;
-import com.google.common.io.Files;
 import javaslang.collection.HashMap;
 import javaslang.collection.HashSet;
 import javaslang.collection.List;
 import javaslang.collection.Map;
-import org.reactivecouchbase.common.Throwables;
 import org.reactivecouchbase.concurrent.Future;
 import org.reactivecouchbase.concurrent.Promise;
+import org.reactivecouchbase.functional.Option;
 import org.reactivecouchbase.json.JsValue;
-import org.reactivecouchbase.json.Json;
+import org.reactivecouchbase.sbessentials.libs.json.JsonWriter;
+import org.reactivecouchbase.sbessentials.libs.xml.Xml;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.MediaType;
 
 import javax.servlet.http.Cookie;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
-import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.util.Arrays;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
 
 public class Result {
 
     private static final Logger logger = LoggerFactory.getLogger(Result.class);
 
+    private static final int FILE_CHUNK_SIZE = 64 * 1024;
+
+    // IMF-fixdate of RFC 7231, RFC_1123_DATE_TIME does not pad the day of month
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+
     public final int status;
     public final Source<ByteString, ?> source;
     public final HashMap<String, List<String>> headers;
     public final HashSet<Cookie> cookies;
     public final String contentType;
+    /** The file backing this result, if the body was produced by {@link #sendFile(File)} */
+    public final Option<File> file;
+    /** The in-memory body of this result, if it is known before the response is written */
+    public final Option<ByteString> strictBody;
     public final Promise<Object> materializedValue = Promise.create();
 
     public Result(int status, Source<ByteString, ?> source, String contentType, HashMap<String, List<String>> headers, HashSet<Cookie> cookies) {
@@ -49,6 +54,8 @@ public class Result {
         this.headers = headers;
         this.cookies = cookies;
         this.contentType = contentType;
+        this.file = Option.none();
+        this.strictBody = Option.none();
     }
 
     public Result(int status) {
@@ -69,6 +76,8 @@ public class Result {
         headers = builder.headers;
         cookies = builder.cookies;
         contentType = builder.contentType;
+        file = builder.file;
+        strictBody = builder.strictBody;
     }
 
     public static Builder newBuilder() {
@@ -82,6 +91,8 @@ public class Result {
         builder.headers = copy.headers;
         builder.cookies = copy.cookies;
         builder.contentType = copy.contentType;
+        builder.file = copy.file;
+        builder.strictBody = copy.strictBody;
         return builder;
     }
 
@@ -122,53 +133,66 @@ public class Result {
     }
 
     public Result text(String text) {
-        Source<ByteString, ?> source = StreamConverters.fromInputStream(() -> new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
         return Result.copy(this)
-                .withSource(source)
+                .withStrictBody(ByteString.fromString(text, StandardCharsets.UTF_8.name()))
                 .withContentType(MediaType.TEXT_PLAIN_VALUE)
                 .build();
     }
 
     public Result xml(String xml) {
-        Source<ByteString, ?> source = StreamConverters.fromInputStream(() -> new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
         return Result.copy(this)
-                .withSource(source)
+                .withStrictBody(ByteString.fromString(xml, StandardCharsets.UTF_8.name()))
                 .withContentType(MediaType.APPLICATION_XML_VALUE)
                 .build();
     }
     public Result xml(org.w3c.dom.Node xml) {
-        try {
-            Transformer transformer = TransformerFactory.newInstance().newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "no");
-            StreamResult result = new StreamResult(new StringWriter());
-            DOMSource source = new DOMSource(xml);
-            transformer.transform(source, result);
-            String xmlString = result.getWriter().toString();
-            return text(xmlString).as(MediaType.APPLICATION_XML_VALUE);
-        } catch (Exception e) {
-            throw Throwables.propagate(e);
-        }
+        return Result.copy(this)
+                .withStrictBody(Xml.serialize(xml))
+                .withContentType(MediaType.APPLICATION_XML_VALUE)
+                .build();
+    }
+
+    public Result xml(String rootElement, Source<? extends org.w3c.dom.Node, ?> elements) {
+        return Result.copy(this)
+                .withSource(Xml.document(rootElement, elements))
+                .withContentType(MediaType.APPLICATION_XML_VALUE)
+                .build();
     }
 
     public Result json(String json) {
-        Source<ByteString, ?> source = StreamConverters.fromInputStream(() -> new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
         return Result.copy(this)
-                .withSource(source)
+                .withStrictBody(ByteString.fromString(json, StandardCharsets.UTF_8.name()))
                 .withContentType(MediaType.APPLICATION_JSON_VALUE)
                 .build();
     }
 
     public Result json(JsValue json) {
-        Source<ByteString, ?> source = StreamConverters.fromInputStream(() -> new ByteArrayInputStream(Json.stringify(json).getBytes(StandardCharsets.UTF_8)));
         return Result.copy(this)
-                .withSource(source)
+                .withStrictBody(JsonWriter.toBytes(json))
+                .withContentType(MediaType.APPLICATION_JSON_VALUE)
+                .build();
+    }
+
+    public Result json(Source<JsValue, ?> values) {
+        return Result.copy(this)
+                .withSource(JsonWriter.array(values))
                 .withContentType(MediaType.APPLICATION_JSON_VALUE)
                 .build();
     }
 
+    public Result ndjson(Source<JsValue, ?> values) {
+        return Result.copy(this)
+                .withSource(JsonWriter.ndjson(values))
+                .withContentType(JsonWriter.NDJSON)
+                .build();
+    }
+
     public Result sendFile(File file) {
-        Source<ByteString, ?> source = StreamConverters.fromInputStream(() -> Files.asByteSource(file).openStream());
-        return Result.copy(this).withSource(source).build();
+        String lastModified = HTTP_DATE.format(Instant.ofEpochMilli(file.lastModified()).atZone(ZoneOffset.UTC));
+        return Result.copy(this)
+                .withFile(file)
+                .withHeaders(headers.put("Last-Modified", List.of(lastModified)))
+                .build();
     }
 
     public Result sendPath(Path path) {
@@ -184,12 +208,8 @@ public class Result {
     }
 
     public Result binary(byte[] bytes) {
-        Source<ByteString, ?> source = Source
-                .from(Arrays.asList(bytes))
-                .buffer(8192, OverflowStrategy.backpressure())
-                .map(ByteString::fromArray);
         return Result.copy(this)
-                .withSource(source)
+                .withStrictBody(ByteString.fromArray(bytes))
                 .withContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE)
                 .build();
     }
@@ -202,19 +222,24 @@ public class Result {
     }
 
     public Result html(String html) {
-        Source<ByteString, ?> source = StreamConverters.fromInputStream(() -> new ByteArrayInputStream(html.getBytes(StandardCharsets.UTF_8)));
         return Result.copy(this)
-                .withSource(source)
+                .withStrictBody(ByteString.fromString(html, StandardCharsets.UTF_8.name()))
                 .withContentType(MediaType.TEXT_HTML_VALUE)
                 .build();
     }
 
     public Result template(String name, Map<String, Object> params) {
-        org.thymeleaf.context.Context context = new org.thymeleaf.context.Context();
-        org.thymeleaf.TemplateEngine templateEngine = Results.webApplicationContext.getBean(org.thymeleaf.TemplateEngine.class);
-        params.forEach(tuple -> context.setVariable(tuple._1, tuple._2));
-        String body = templateEngine.process(name, context);
-        return html(body);
+        return Result.copy(this)
+                .withStrictBody(Templates.render(name, params))
+                .withContentType(MediaType.TEXT_HTML_VALUE)
+                .build();
+    }
+
+    public Result streamTemplate(String name, Map<String, Object> params) {
+        return Result.copy(this)
+                .withSource(Templates.stream(name, params))
+                .withContentType(MediaType.TEXT_HTML_VALUE)
+                .build();
     }
 
     public Result chunked(Source<ByteString, ?> theStream) {
@@ -225,6 +250,29 @@ public class Result {
         return Result.copy(this).withSource(stream.map(ByteString::fromString)).build();
     }
 
+    public Result sse(Source<ServerSentEvents.Event, ?> events) {
+        return sse(events, ServerSentEvents.Settings.defaults());
+    }
+
+    public Result sse(Source<ServerSentEvents.Event, ?> events, ServerSentEvents.Settings settings) {
+        return Result.copy(this)
+                .withSource(ServerSentEvents.encode(events, settings))
+                .withContentType(ServerSentEvents.CONTENT_TYPE)
+                .build()
+                .withHeader("Cache-Control", "no-cache");
+    }
+
+    /**
+     * The length of the body when it is known before the body is streamed,
+     * ie. for file and in-memory bodies.
+     */
+    public Option<Long> contentLength() {
+        for (File f : file) {
+            return Option.some(f.length());
+        }
+        return strictBody.map(b -> (long) b.length());
+    }
+
     public Future<Object> materializedValue() {
         return materializedValue.future();
     }
@@ -251,6 +299,8 @@ public class Result {
         private HashMap<String, List<String>> headers;
         private HashSet<Cookie> cookies;
         private String contentType;
+        private Option<File> file = Option.none();
+        private Option<ByteString> strictBody = Option.none();
 
         private Builder() {
         }
@@ -260,8 +310,27 @@ public class Result {
             return this;
         }
 
+        /** Sets a streamed body, replacing any file or in-memory body previously set. */
         public Builder withSource(Source<ByteString, ?> val) {
             source = val;
+            file = Option.none();
+            strictBody = Option.none();
+            return this;
+        }
+
+        /** Sets a file body, read through a {@code FileChannel} and sent with a known length. */
+        public Builder withFile(File val) {
+            source = FileIO.fromFile(val, FILE_CHUNK_SIZE);
+            file = Option.some(val);
+            strictBody = Option.none();
+            return this;
+        }
+
+        /** Sets an in-memory body, sent with a known length. */
+        public Builder withStrictBody(ByteString val) {
+            source = Source.single(val);
+            file = Option.none();
+            strictBody = Option.some(val);
             return this;
         }
 
@@ -0,0 +1,271 @@
+package org.reactivecouchbase.sbessentials.libs.result;
+
+import akka.NotUsed;
+import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import org.reactivecouchbase.functional.Option;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-Sent Events encoding for {@link Result#sse(Source)}.
+ *
+ * Events are encoded once into a single ByteString each. When the client is slower than the feed, encoded events
+ * are batched so several of them go out in one write, and once the batch is full the slow consumer policy decides
+ * what happens to the next events. Idle connections get keep-alive comments so proxies do not close them.
+ */
+public class ServerSentEvents {
+
+    public static final String CONTENT_TYPE = "text/event-stream";
+
+    private static final ByteString ID = ByteString.fromString("id: ");
+    private static final ByteString EVENT = ByteString.fromString("event: ");
+    private static final ByteString DATA = ByteString.fromString("data: ");
+    private static final ByteString RETRY = ByteString.fromString("retry: ");
+    private static final ByteString END_OF_LINE = ByteString.fromString("\n");
+    private static final ByteString KEEP_ALIVE = ByteString.fromString(":\n\n");
+
+    /**
+     * What to do with new events when a client does not read them fast enough.
+     */
+    public enum SlowConsumerPolicy {
+        /** slow down the feed, only for per-client sources */
+        BACKPRESSURE,
+        /** only keep the latest pending event */
+        CONFLATE,
+        /** drop the oldest pending events */
+        DROP_OLDEST,
+        /** close the connection */
+        DISCONNECT
+    }
+
+    public static class Event {
+
+        public final Option<String> id;
+        public final Option<String> name;
+        public final String data;
+        public final Option<Long> retry;
+
+        private Event(Option<String> id, Option<String> name, String data, Option<Long> retry) {
+            this.id = id;
+            this.name = name;
+            this.data = data;
+            this.retry = retry;
+        }
+
+        public static Event data(String data) {
+            return new Event(Option.none(), Option.none(), data, Option.none());
+        }
+
+        /**
+         * @throws IllegalArgumentException if the id contains a line break, which would start another field
+         */
+        public Event withId(String id) {
+            return new Event(Option.some(singleLine("id", id)), name, data, retry);
+        }
+
+        /**
+         * @throws IllegalArgumentException if the name contains a line break, which would start another field
+         */
+        public Event withName(String name) {
+            return new Event(id, Option.some(singleLine("name", name)), data, retry);
+        }
+
+        public Event withRetry(long retryMillis) {
+            return new Event(id, name, data, Option.some(retryMillis));
+        }
+
+        public ByteString encode() {
+            ByteStringBuilder builder = ByteString.createBuilder();
+            for (String value : id) {
+                field(builder, ID, value);
+            }
+            for (String value : name) {
+                field(builder, EVENT, value);
+            }
+            for (Long value : retry) {
+                field(builder, RETRY, String.valueOf(value));
+            }
+            // every line of the payload is sent in its own data field
+            int start = 0;
+            int length = data.length();
+            for (int i = 0; i < length; i++) {
+                char c = data.charAt(i);
+                if (c == '\n' || c == '\r') {
+                    field(builder, DATA, data.substring(start, i));
+                    if (c == '\r' && i + 1 < length && data.charAt(i + 1) == '\n') {
+                        i++;
+                    }
+                    start = i + 1;
+                }
+            }
+            field(builder, DATA, data.substring(start));
+            builder.append(END_OF_LINE);
+            return builder.result();
+        }
+
+        private static String singleLine(String field, String value) {
+            if (value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                throw new IllegalArgumentException("Event " + field + " can not contain line breaks");
+            }
+            return value;
+        }
+
+        private static void field(ByteStringBuilder builder, ByteString field, String value) {
+            builder.append(field);
+            builder.putBytes(value.getBytes(StandardCharsets.UTF_8));
+            builder.append(END_OF_LINE);
+        }
+    }
+
+    public static class Settings {
+
+        public final FiniteDuration keepAlive;
+        public final SlowConsumerPolicy policy;
+        public final int bufferSize;
+        public final long maxBatchBytes;
+
+        private Settings(FiniteDuration keepAlive, SlowConsumerPolicy policy, int bufferSize, long maxBatchBytes) {
+            this.keepAlive = keepAlive;
+            this.policy = policy;
+            this.bufferSize = bufferSize;
+            this.maxBatchBytes = maxBatchBytes;
+        }
+
+        public static Settings defaults() {
+            return new Settings(FiniteDuration.create(15, TimeUnit.SECONDS), SlowConsumerPolicy.BACKPRESSURE, 256, 32 * 1024);
+        }
+
+        public Settings withKeepAlive(long duration, TimeUnit unit) {
+            return new Settings(FiniteDuration.create(duration, unit), policy, bufferSize, maxBatchBytes);
+        }
+
+        public Settings withPolicy(SlowConsumerPolicy policy) {
+            return new Settings(keepAlive, policy, bufferSize, maxBatchBytes);
+        }
+
+        /**
+         * @param bufferSize number of pending events kept for the DROP_OLDEST and DISCONNECT policies
+         */
+        public Settings withBufferSize(int bufferSize) {
+            return new Settings(keepAlive, policy, bufferSize, maxBatchBytes);
+        }
+
+        public Settings withMaxBatchBytes(long maxBatchBytes) {
+            return new Settings(keepAlive, policy, bufferSize, maxBatchBytes);
+        }
+    }
+
+    /**
+     * Keeps the last events of a feed so reconnecting clients can resume after their `Last-Event-ID`.
+     * Only events with an id are kept.
+     */
+    public static class ReplayBuffer {
+
+        private final int capacity;
+        private final ArrayDeque<Event> events;
+
+        public ReplayBuffer(int capacity) {
+            this.capacity = capacity;
+            this.events = new ArrayDeque<>(capacity);
+        }
+
+        /**
+         * @return a flow keeping the events passing through it
+         */
+        public Flow<Event, Event, NotUsed> record() {
+            return Flow.<Event>create().map(event -> {
+                add(event);
+                return event;
+            });
+        }
+
+        public synchronized void add(Event event) {
+            if (event.id.isEmpty()) {
+                return;
+            }
+            if (events.size() == capacity) {
+                events.removeFirst();
+            }
+            events.addLast(event);
+        }
+
+        /**
+         * @return the kept events following the one with the given id, all of them if it is unknown
+         */
+        public synchronized List<Event> since(String lastEventId) {
+            List<Event> replay = new ArrayList<>();
+            Iterator<Event> iterator = events.descendingIterator();
+            while (iterator.hasNext()) {
+                Event event = iterator.next();
+                if (event.id.get().equals(lastEventId)) {
+                    break;
+                }
+                replay.add(event);
+            }
+            Collections.reverse(replay);
+            return replay;
+        }
+
+        /**
+         * Prepends the events missed by the client to the live feed. Events of the live feed already replayed are skipped.
+         */
+        public <Mat> Source<Event, Mat> resume(Option<String> lastEventId, Source<Event, Mat> live) {
+            if (lastEventId.isEmpty()) {
+                return live;
+            }
+            Set<String> replayed = new HashSet<>();
+            // the replayed events are read when the stream is first pulled, once the live feed is subscribed
+            Source<Event, NotUsed> replay = Source.single(lastEventId.get()).mapConcat(id -> {
+                List<Event> missed = since(id);
+                for (Event event : missed) {
+                    replayed.add(event.id.get());
+                }
+                return missed;
+            });
+            return replay.concatMat(live.filter(event -> {
+                if (replayed.isEmpty()) {
+                    return true;
+                }
+                if (event.id.isDefined() && replayed.contains(event.id.get())) {
+                    return false;
+                }
+                replayed.clear();
+                return true;
+            }), (m1, m2) -> m2);
+        }
+    }
+
+    static Source<ByteString, ?> encode(Source<Event, ?> events, Settings settings) {
+        Source<Event, ?> guarded;
+        switch (settings.policy) {
+            case CONFLATE:
+                guarded = events.conflate((previous, next) -> next);
+                break;
+            case DROP_OLDEST:
+                guarded = events.buffer(settings.bufferSize, OverflowStrategy.dropHead());
+                break;
+            case DISCONNECT:
+                guarded = events.buffer(settings.bufferSize, OverflowStrategy.fail());
+                break;
+            default:
+                guarded = events;
+        }
+        return guarded
+                .map(Event::encode)
+                .batchWeighted(settings.maxBatchBytes, bytes -> (long) bytes.length(), bytes -> bytes, ByteString::concat)
+                .keepAlive(settings.keepAlive, () -> KEEP_ALIVE);
+    }
+}
@@ -0,0 +1,119 @@
+package org.reactivecouchbase.sbessentials.libs.result;
+
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import javaslang.collection.List;
+import javaslang.collection.Map;
+import org.reactivecouchbase.common.Throwables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.thymeleaf.TemplateEngine;
+import org.thymeleaf.context.Context;
+import org.thymeleaf.context.IContext;
+
+import javax.annotation.PostConstruct;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Renders Thymeleaf templates for {@link Result#template(String, Map)} and {@link Result#streamTemplate(String, Map)}.
+ *
+ * The template engine is resolved once, and the templates listed in `app.config.templates.warmup`
+ * are parsed at startup so their first rendering does not pay for it.
+ */
+@Component
+public class Templates {
+
+    private static final Logger logger = LoggerFactory.getLogger(Templates.class);
+
+    private static final int CHUNK_SIZE = 8192;
+
+    static TemplateEngine templateEngine;
+
+    static ExecutorService executor;
+
+    @Value("${app.config.templates.warmup}")
+    public String warmup;
+
+    @Autowired
+    public void setTemplateEngine(TemplateEngine templateEngine) {
+        Templates.templateEngine = templateEngine;
+    }
+
+    @Autowired
+    public void setExecutor(ExecutorService globalExecutor) {
+        Templates.executor = globalExecutor;
+    }
+
+    @PostConstruct
+    public void warmup() {
+        List.of(warmup.split(",")).map(String::trim).filter(name -> !name.isEmpty()).forEach(name -> {
+            try {
+                // parsed templates are kept in the engine cache, even if rendering fails without parameters
+                templateEngine.process(name, new Context(), new NullWriter());
+                logger.info("Template '{}' warmed up", name);
+            } catch (Exception e) {
+                logger.debug("Template '{}' parsed but not rendered during warm up", name, e);
+            }
+        });
+    }
+
+    static ByteString render(String name, Map<String, Object> params) {
+        ByteStringBuilder builder = ByteString.createBuilder();
+        try (Writer writer = new OutputStreamWriter(builder.asOutputStream(), StandardCharsets.UTF_8)) {
+            templateEngine.process(name, context(params), writer);
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+        return builder.result();
+    }
+
+    /**
+     * Renders the template on the global executor once the stream starts, then emits the page in chunks.
+     * Thymeleaf builds the whole page before writing it, so nothing is gained by streaming the rendering itself,
+     * and no thread is held while a slow client reads the page. The stream fails if the rendering fails,
+     * so the response is aborted instead of ending truncated.
+     */
+    static Source<ByteString, ?> stream(String name, Map<String, Object> params) {
+        return Source.single(name)
+                .mapAsync(1, n -> CompletableFuture.supplyAsync(() -> chunks(render(n, params)), executor))
+                .mapConcat(chunks -> chunks);
+    }
+
+    private static java.util.List<ByteString> chunks(ByteString page) {
+        java.util.List<ByteString> chunks = new ArrayList<>(page.length() / CHUNK_SIZE + 1);
+        for (int from = 0; from < page.length(); from += CHUNK_SIZE) {
+            chunks.add(page.slice(from, Math.min(page.length(), from + CHUNK_SIZE)));
+        }
+        return chunks;
+    }
+
+    private static IContext context(Map<String, Object> params) {
+        Context context = new Context();
+        params.forEach(tuple -> context.setVariable(tuple._1, tuple._2));
+        return context;
+    }
+
+    private static class NullWriter extends Writer {
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.reactivecouchbase.sbessentials.libs.streams;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import akka.stream.ActorMaterializer;
+import akka.stream.ActorMaterializerSettings;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.StreamConverters;
+import akka.util.ByteString;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The materializer shared by every stream run in libs.
+ *
+ * Streams passed through {@link #instrument(Source)} are counted: running streams, materializations (total and per second)
+ * and failures are published as `streams.*` metrics of the actuator.
+ */
+public class StreamRuntime implements PublicMetrics {
+
+    private final ActorMaterializer materializer;
+    private final FiniteDuration readTimeout;
+    private final Cancellable sampler;
+
+    private final AtomicLong running = new AtomicLong(0L);
+    private final AtomicLong materializations = new AtomicLong(0L);
+    private final AtomicLong failures = new AtomicLong(0L);
+
+    private volatile long lastMaterializations = 0L;
+    private volatile long materializationsPerSecond = 0L;
+
+    /**
+     * @param readTimeout how long blocking reads of streams wait for their next element, usually the async timeout of requests
+     */
+    public StreamRuntime(ActorSystem system, String dispatcher, int initialInputBuffer, int maxInputBuffer, boolean autoFusing, FiniteDuration readTimeout) {
+        this.readTimeout = readTimeout;
+        ActorMaterializerSettings settings = ActorMaterializerSettings.create(system)
+                .withDispatcher(dispatcher)
+                .withInputBuffer(initialInputBuffer, maxInputBuffer)
+                .withAutoFusing(autoFusing);
+        this.materializer = ActorMaterializer.create(settings, system, "libs-streams");
+        this.sampler = system.scheduler().schedule(
+                FiniteDuration.create(1, TimeUnit.SECONDS),
+                FiniteDuration.create(1, TimeUnit.SECONDS),
+                this::sample,
+                system.dispatcher()
+        );
+    }
+
+    public Materializer materializer() {
+        return materializer;
+    }
+
+    /**
+     * @return a sink exposing a stream as a blocking InputStream, whose reads wait for the configured read timeout
+     */
+    public Sink<ByteString, InputStream> asInputStream() {
+        return StreamConverters.asInputStream(readTimeout);
+    }
+
+    /**
+     * @return the same source, counted in the metrics when it is materialized and when it terminates
+     */
+    public <T, M> Source<T, M> instrument(Source<T, M> source) {
+        return source.watchTermination((mat, termination) -> {
+            materializations.incrementAndGet();
+            running.incrementAndGet();
+            termination.whenComplete((done, error) -> {
+                running.decrementAndGet();
+                if (error != null) {
+                    failures.incrementAndGet();
+                }
+            });
+            return mat;
+        });
+    }
+
+    public long runningStreams() {
+        return running.get();
+    }
+
+    public long materializations() {
+        return materializations.get();
+    }
+
+    public long materializationsPerSecond() {
+        return materializationsPerSecond;
+    }
+
+    public long failures() {
+        return failures.get();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        Collection<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("streams.running", runningStreams()));
+        metrics.add(new Metric<>("streams.materializations", materializations()));
+        metrics.add(new Metric<>("streams.materializations.persecond", materializationsPerSecond()));
+        metrics.add(new Metric<>("streams.failures", failures()));
+        return metrics;
+    }
+
+    public void shutdown() {
+        sampler.cancel();
+        materializer.shutdown();
+    }
+
+    private void sample() {
+        long current = materializations.get();
+        materializationsPerSecond = current - lastMaterializations;
+        lastMaterializations = current;
+    }
+}
@@ -5,11 +5,14 @@ import akka.http.javadsl.Http;
 import akka.http.javadsl.OutgoingConnection;
 import akka.http.javadsl.model.HttpRequest;
 import akka.http.javadsl.model.HttpResponse;
-import akka.stream.ActorMaterializer;
 import akka.stream.javadsl.Flow;
 import akka.stream.javadsl.Sink;
 import akka.stream.javadsl.Source;
 import org.reactivecouchbase.concurrent.Future;
+import org.reactivecouchbase.functional.Option;
+import org.reactivecouchbase.sbessentials.libs.actions.Deadline;
+import org.reactivecouchbase.sbessentials.libs.actions.RequestContext;
+import org.reactivecouchbase.sbessentials.libs.streams.StreamRuntime;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.web.context.WebApplicationContext;
@@ -26,15 +29,39 @@ public class WS {
         WS.webApplicationContext = webApplicationContext;
     }
 
+    static StreamRuntime streamRuntime;
+
+    @Autowired
+    public void setStreamRuntime(StreamRuntime streamRuntime) {
+        WS.streamRuntime = streamRuntime;
+    }
+
     public static Future<WSResponse> call(String host, HttpRequest request) {
+        return call(host, request, Option.none());
+    }
+
+    /**
+     * Same as {@link #call(String, HttpRequest)}, the connection and the body of the response being closed
+     * when the deadline of the request expires.
+     */
+    public static Future<WSResponse> call(String host, HttpRequest request, RequestContext context) {
+        return call(host, request, context.deadline());
+    }
+
+    private static Future<WSResponse> call(String host, HttpRequest request, Option<Deadline> deadline) {
         ActorSystem system = WS.webApplicationContext.getBean(ActorSystem.class);
-        ActorMaterializer materializer = ActorMaterializer.create(system);
         Flow<HttpRequest, HttpResponse, CompletionStage<OutgoingConnection>> connectionFlow =
                 Http.get(system).outgoingConnection(host);
         CompletionStage<HttpResponse> responseFuture =
-                Source.single(request)
-                        .via(connectionFlow)
-                        .runWith(Sink.<HttpResponse>head(), materializer);
-        return Future.fromJdkCompletableFuture(responseFuture.toCompletableFuture()).map(WSResponse::new);
+                streamRuntime.instrument(bind(Source.single(request).via(connectionFlow), deadline))
+                        .runWith(Sink.<HttpResponse>head(), streamRuntime.materializer());
+        return Future.fromJdkCompletableFuture(responseFuture.toCompletableFuture()).map(response -> new WSResponse(response, deadline));
+    }
+
+    static <T, M> Source<T, M> bind(Source<T, M> source, Option<Deadline> deadline) {
+        for (Deadline d : deadline) {
+            return d.bind(source);
+        }
+        return source;
     }
-}
\ No newline at end of file
+}
@@ -1,14 +1,10 @@
 package org.reactivecouchbase.sbessentials.libs.ws;
 
 import akka.util.ByteString;
-import org.reactivecouchbase.common.Throwables;
 import org.reactivecouchbase.json.JsValue;
 import org.reactivecouchbase.json.Json;
+import org.reactivecouchbase.sbessentials.libs.xml.Xml;
 import org.w3c.dom.Node;
-import org.xml.sax.InputSource;
-
-import javax.xml.parsers.DocumentBuilderFactory;
-import java.io.StringReader;
 
 public class WSBody {
 
@@ -27,11 +23,6 @@ public class WSBody {
     }
 
     public Node xml() {
-        try {
-            return DocumentBuilderFactory.newInstance().newDocumentBuilder()
-                    .parse(new InputSource(new StringReader(body())));
-        } catch (Exception e) {
-            throw Throwables.propagate(e);
-        }
+        return Xml.parse(bodyAsBytes);
     }
 }
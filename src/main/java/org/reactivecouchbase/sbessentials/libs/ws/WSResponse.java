@@ -1,9 +1,7 @@
 package org.reactivecouchbase.sbessentials.libs.ws;
 
-import akka.actor.ActorSystem;
 import akka.http.javadsl.model.HttpHeader;
 import akka.http.javadsl.model.HttpResponse;
-import akka.stream.ActorMaterializer;
 import akka.stream.javadsl.Source;
 import akka.util.ByteString;
 import javaslang.collection.HashMap;
@@ -11,6 +9,11 @@ import javaslang.collection.List;
 import javaslang.collection.Map;
 import org.reactivecouchbase.concurrent.Future;
 import org.reactivecouchbase.functional.Option;
+import org.reactivecouchbase.json.JsValue;
+import org.reactivecouchbase.sbessentials.libs.actions.Deadline;
+import org.reactivecouchbase.sbessentials.libs.json.JsonReader;
+import org.reactivecouchbase.sbessentials.libs.xml.Xml;
+import org.w3c.dom.Node;
 
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -20,9 +23,15 @@ public class WSResponse {
 
     private final AtomicReference<ByteString> _bodyAsBytes = new AtomicReference<>(null);
     private final Map<String, List<String>> headers;
+    private final Option<Deadline> deadline;
 
     public WSResponse(HttpResponse underlying) {
+        this(underlying, Option.none());
+    }
+
+    WSResponse(HttpResponse underlying, Option<Deadline> deadline) {
         this.underlying = underlying;
+        this.deadline = deadline;
         Map<String, List<String>> _headers = HashMap.empty();
         for (HttpHeader header : underlying.getHeaders()) {
             if (!_headers.containsKey(header.name())) {
@@ -58,14 +67,24 @@ public class WSResponse {
     }
 
     public Future<WSBody> body() {
-        ActorMaterializer materializer = ActorMaterializer.create(WS.webApplicationContext.getBean(ActorSystem.class));
-        Source<ByteString, ?> source = underlying.entity().getDataBytes();
+        Source<ByteString, ?> source = WS.streamRuntime.instrument(bodyAsStream());
         return Future.fromJdkCompletableFuture(
-                source.runFold(ByteString.empty(), ByteString::concat, materializer).toCompletableFuture()
+                source.runFold(ByteString.empty(), ByteString::concat, WS.streamRuntime.materializer()).toCompletableFuture()
         ).map(WSBody::new);
     }
 
     public Source<ByteString, ?> bodyAsStream() {
-        return underlying.entity().getDataBytes();
+        return WS.bind(underlying.entity().getDataBytes(), deadline);
+    }
+
+    public Source<JsValue, ?> bodyAsJsonStream() {
+        return bodyAsStream().via(JsonReader.objects());
+    }
+
+    /**
+     * @return the elements of the body with the given local name, parsed as soon as each one is received
+     */
+    public Source<Node, ?> bodyAsXmlElements(String localName) {
+        return Xml.elements(bodyAsStream(), localName, WS.streamRuntime);
     }
 }
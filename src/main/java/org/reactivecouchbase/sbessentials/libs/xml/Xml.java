@@ -0,0 +1,222 @@
+package org.reactivecouchbase.sbessentials.libs.xml;
+
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import org.reactivecouchbase.common.Throwables;
+import org.reactivecouchbase.sbessentials.libs.streams.StreamRuntime;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+
+/**
+ * XML parsing and serialization.
+ *
+ * Factories are looked up once, and the builders and transformers they create, which are not thread-safe,
+ * are reused per thread. Large documents can be read as a stream of StAX events or of selected elements,
+ * and written as a stream of elements.
+ */
+public class Xml {
+
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+    private static final TransformerFactory TRANSFORMER_FACTORY = TransformerFactory.newInstance();
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        // bodies come from untrusted clients, neither resolve external entities nor expand entities declared in a DTD
+        try {
+            DOCUMENT_BUILDER_FACTORY.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            DOCUMENT_BUILDER_FACTORY.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        } catch (ParserConfigurationException e) {
+            throw Throwables.propagate(e);
+        }
+        DOCUMENT_BUILDER_FACTORY.setXIncludeAware(false);
+        DOCUMENT_BUILDER_FACTORY.setExpandEntityReferences(false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = ThreadLocal.withInitial(() -> {
+        synchronized (DOCUMENT_BUILDER_FACTORY) {
+            try {
+                return DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+            } catch (Exception e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    });
+
+    private static final ThreadLocal<Transformer> TRANSFORMER = ThreadLocal.withInitial(() -> {
+        synchronized (TRANSFORMER_FACTORY) {
+            try {
+                return TRANSFORMER_FACTORY.newTransformer();
+            } catch (Exception e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    });
+
+    public static Document parse(ByteString bytes) {
+        DocumentBuilder builder = DOCUMENT_BUILDER.get();
+        try {
+            // the encoding is read from the XML declaration, not assumed
+            return builder.parse(new InputSource(bytes.iterator().asInputStream()));
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        } finally {
+            builder.reset();
+        }
+    }
+
+    public static ByteString serialize(Node node) {
+        return serialize(node, false);
+    }
+
+    private static ByteString serialize(Node node, boolean fragment) {
+        Transformer transformer = TRANSFORMER.get();
+        try {
+            transformer.setOutputProperty(OutputKeys.INDENT, "no");
+            if (fragment) {
+                transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            }
+            ByteStringBuilder builder = ByteString.createBuilder();
+            transformer.transform(new DOMSource(node), new StreamResult(builder.asOutputStream()));
+            return builder.result();
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        } finally {
+            transformer.reset();
+        }
+    }
+
+    /**
+     * @return the elements serialized one after the other inside a root element
+     */
+    public static <Mat> Source<ByteString, Mat> document(String rootElement, Source<? extends Node, Mat> elements) {
+        return elements.map(node -> serialize(node, true))
+                .prepend(Source.single(ByteString.fromString("<?xml version=\"1.0\" encoding=\"UTF-8\"?><" + rootElement + ">")))
+                .concat(Source.single(ByteString.fromString("</" + rootElement + ">")));
+    }
+
+    /**
+     * @return the StAX events of the document, read as the bytes are received
+     */
+    public static Source<XMLEvent, NotUsed> events(Source<ByteString, ?> bytes, StreamRuntime streamRuntime) {
+        return Source.unfoldResource(
+            () -> INPUT_FACTORY.createXMLEventReader(input(bytes, streamRuntime)),
+            reader -> reader.hasNext() ? Optional.of(reader.nextEvent()) : Optional.empty(),
+            XMLEventReader::close
+        );
+    }
+
+    /**
+     * @return the elements with the given local name, each one parsed as a DOM node as soon as it is complete.
+     * Only the element being read is kept in memory.
+     */
+    public static Source<Node, NotUsed> elements(Source<ByteString, ?> bytes, String localName, StreamRuntime streamRuntime) {
+        return Source.unfoldResource(
+            () -> new ElementReader(input(bytes, streamRuntime)),
+            reader -> reader.next(localName),
+            ElementReader::close
+        );
+    }
+
+    private static InputStream input(Source<ByteString, ?> bytes, StreamRuntime streamRuntime) {
+        // a slow upload must not fail the parsing, reads wait as long as the request may last
+        InputStream input = bytes.runWith(streamRuntime.asInputStream(), streamRuntime.materializer());
+        // parsers may read again after the end of the stream, which the stream adapter does not allow
+        return new FilterInputStream(input) {
+            private boolean ended = false;
+
+            @Override
+            public int read() throws IOException {
+                if (ended) {
+                    return -1;
+                }
+                int b = super.read();
+                ended = b < 0;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                if (ended) {
+                    return -1;
+                }
+                int read = super.read(bytes, offset, length);
+                ended = read < 0;
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!ended) {
+                    super.close();
+                }
+            }
+        };
+    }
+
+    private static class ElementReader {
+
+        private final InputStream input;
+        private final XMLStreamReader reader;
+        private boolean advance = true;
+
+        private ElementReader(InputStream input) throws Exception {
+            this.input = input;
+            this.reader = INPUT_FACTORY.createXMLStreamReader(input);
+        }
+
+        private Optional<Node> next(String localName) throws Exception {
+            while (true) {
+                // once an element has been read, the reader already stands on the following event
+                if (advance) {
+                    if (!reader.hasNext()) {
+                        return Optional.empty();
+                    }
+                    reader.next();
+                }
+                advance = true;
+                if (reader.getEventType() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals(localName)) {
+                    Transformer transformer = TRANSFORMER.get();
+                    try {
+                        DOMResult result = new DOMResult();
+                        transformer.transform(new StAXSource(reader), result);
+                        advance = false;
+                        return Optional.of(((Document) result.getNode()).getDocumentElement());
+                    } finally {
+                        transformer.reset();
+                    }
+                }
+            }
+        }
+
+        private void close() throws Exception {
+            reader.close();
+            input.close();
+        }
+    }
+}
@@ -5,12 +5,20 @@ import akka.actor.ActorSystem;
 import akka.actor.Cancellable;
 import akka.http.javadsl.model.HttpRequest;
 import akka.stream.javadsl.Source;
+import javaslang.control.Either;
 import org.reactivecouchbase.common.Duration;
 import org.reactivecouchbase.concurrent.Future;
 import org.reactivecouchbase.json.Json;
 import org.reactivecouchbase.sbessentials.libs.actions.Action;
+import org.reactivecouchbase.sbessentials.libs.actions.ActionPipeline;
 import org.reactivecouchbase.sbessentials.libs.actions.Actions;
+import org.reactivecouchbase.sbessentials.libs.actions.AttrKey;
+import org.reactivecouchbase.sbessentials.libs.actions.Cached;
+import org.reactivecouchbase.sbessentials.libs.actions.Compressed;
+import org.reactivecouchbase.sbessentials.libs.actions.RateLimited;
+import org.reactivecouchbase.sbessentials.libs.actions.Timeout;
 import org.reactivecouchbase.sbessentials.libs.result.Result;
+import org.reactivecouchbase.sbessentials.libs.result.ServerSentEvents;
 import org.reactivecouchbase.sbessentials.libs.ws.WS;
 import org.reactivecouchbase.sbessentials.libs.ws.WSResponse;
 import org.slf4j.Logger;
@@ -23,7 +31,6 @@ import scala.concurrent.duration.FiniteDuration;
 
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -39,62 +46,59 @@ public class TestController {
 
     @Autowired ActorSystem actorSystem;
 
-    private static Action ApiKeyCheck = (req, block) -> req.header("Api-Key").fold(
+    private static Action ApiKeyCheck = ActionPipeline.before(req -> req.header("Api-Key").fold(
         () -> {
             logger.info("No API KEY provided");
-            return Future.successful(BadRequest.json(Json.obj().with("error", "No API KEY provided")));
+            return Either.left(BadRequest.json(Json.obj().with("error", "No API KEY provided")));
         },
         (value) -> {
             if (value.equalsIgnoreCase("12345")) {
-                return block.apply(req);
+                return Either.right(req);
             } else {
                 logger.info("Bad API KEY provided {}", value);
-                return Future.successful(BadRequest.json(Json.obj().with("error", "Bad API KEY")));
+                return Either.left(BadRequest.json(Json.obj().with("error", "Bad API KEY")));
             }
         }
-    );
+    ));
 
-    private static Action LogBefore = (req, block) -> {
+    private static final AttrKey<Long> Start = AttrKey.create("start", Long.class);
+
+    private static Action LogBefore = ActionPipeline.before(req -> {
         Long start = System.currentTimeMillis();
         logger.info("[Log] before action -> {}", req.getRequest().getRequestURI());
-        return block.apply(req.setValue("start", start));
-    };
+        return Either.right(req.setAttr(Start, start));
+    });
 
-    private static Action LogAfter = (req, block) -> block.apply(req).andThen(ttry -> {
+    private static Action LogAfter = ActionPipeline.after((req, result) -> {
         logger.info(
             "[Log] after action -> {} : took {}",
             req.getRequest().getRequestURI(),
-            Duration.of(System.currentTimeMillis() - req.getValue("start", Long.class), TimeUnit.MILLISECONDS).toHumanReadable()
+            Duration.of(System.currentTimeMillis() - req.getAttr(Start).get(), TimeUnit.MILLISECONDS).toHumanReadable()
         );
+        return result;
     });
 
-    private static Action Throttle(int limit, long perMillis) {
-        AtomicLong next = new AtomicLong(System.currentTimeMillis());
-        AtomicLong counter = new AtomicLong(0L);
-        return (request, block) -> {
-            if (System.currentTimeMillis() > next.get()) {
-                next.set(System.currentTimeMillis() + perMillis);
-                counter.set(0L);
-            }
-            if (counter.get() == limit) {
-                logger.info("Too much call for {}", request.getRequest().getRequestURI());
-                return Future.successful(BadRequest.json(Json.obj().with("error", "too much calls")));
-            }
-            counter.incrementAndGet();
-            return block.apply(request);
-        };
-    }
+    private static Action Throttle = RateLimited.newBuilder()
+                                                .withKey(RateLimited.byHeader("Api-Key"))
+                                                .withLimit(2, 3, TimeUnit.SECONDS)
+                                                .build();
+
+    private static Action Gzip = new Compressed();
+
+    private static Action WSCache = Cached.newBuilder().withTtl(30, TimeUnit.SECONDS).build();
+
+    private static Action WSTimeout = Timeout.gateway(5, TimeUnit.SECONDS);
 
     private static Action ApiManagedAction = LogBefore
                                                 .andThen(ApiKeyCheck)
-                                                .andThen(Throttle(2, 3000))
+                                                .andThen(Throttle)
                                                 .andThen(LogAfter);
 
     @RequestMapping(method = RequestMethod.GET, path = "/sse")
     public Future<Result> testStream() {
         return Actions.sync(ctx -> {
 
-            Result result = Ok.stream(
+            Result result = Ok.sse(
                 Source.tick(
                     FiniteDuration.apply(0, TimeUnit.MILLISECONDS),
                     FiniteDuration.apply(1, TimeUnit.SECONDS),
@@ -102,9 +106,9 @@ public class TestController {
                 )
                 .map(l -> Json.obj().with("time", System.currentTimeMillis()).with("value", l))
                 .map(Json::stringify)
-                .map(j -> "data: " + j)
-                .map(j -> j + "\n\n")
-            ).as("text/event-stream");
+                .map(ServerSentEvents.Event::data),
+                ServerSentEvents.Settings.defaults().withPolicy(ServerSentEvents.SlowConsumerPolicy.CONFLATE)
+            );
 
             result.materializedValue(Cancellable.class).andThen(ttry -> {
                 for (Cancellable c : ttry.asSuccess()) {
@@ -132,7 +136,7 @@ public class TestController {
 
     @RequestMapping(method = RequestMethod.GET, path = "/huge")
     public Future<Result> testHugeText() {
-        return ApiManagedAction.sync(ctx ->
+        return ApiManagedAction.andThen(Gzip).sync(ctx ->
             Ok.text(VERY_HUGE_TEXT + "\n")
         );
     }
@@ -160,8 +164,8 @@ public class TestController {
 
     @RequestMapping(method = RequestMethod.GET, path = "/ws")
     public Future<Result> testWS() {
-        return ApiManagedAction.async(ctx ->
-            WS.call("http://freegeoip.net", HttpRequest.create("/json/"))
+        return ApiManagedAction.andThen(WSCache).andThen(WSTimeout).async(ctx ->
+            WS.call("http://freegeoip.net", HttpRequest.create("/json/"), ctx)
                 .flatMap(WSResponse::body)
                 .map(r -> r.json().pretty())
                 .map(p -> Ok.json(p))
@@ -0,0 +1,37 @@
+package org.reactivecouchbase.sbessentiels.tests;
+
+import javaslang.collection.List;
+import org.junit.Test;
+import org.reactivecouchbase.sbessentials.libs.result.Compression;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompressionTest {
+
+    @Test
+    public void negotiatePreferredEncoding() {
+        assertThat(Compression.negotiate("gzip, deflate").get()).isEqualTo(Compression.GZIP);
+        assertThat(Compression.negotiate("gzip;q=0.5, deflate").get()).isEqualTo(Compression.DEFLATE);
+        assertThat(Compression.negotiate("x-gzip").get()).isEqualTo(Compression.GZIP);
+        assertThat(Compression.negotiate("br, identity").isDefined()).isFalse();
+        assertThat(Compression.negotiate((String) null).isDefined()).isFalse();
+    }
+
+    @Test
+    public void doNotUseRefusedEncodings() {
+        assertThat(Compression.negotiate("gzip;q=0, deflate;q=0").isDefined()).isFalse();
+        assertThat(Compression.negotiate("gzip;q=0, *").get()).isEqualTo(Compression.DEFLATE);
+        assertThat(Compression.negotiate("gzip;q=0, deflate;q=0, *").isDefined()).isFalse();
+        assertThat(Compression.negotiate("*;q=0").isDefined()).isFalse();
+        assertThat(Compression.negotiate("*").get()).isEqualTo(Compression.GZIP);
+    }
+
+    @Test
+    public void negotiateParsedEncodings() {
+        assertThat(Compression.negotiate(List.of("deflate", "gzip"), List.empty()).get()).isEqualTo(Compression.DEFLATE);
+        assertThat(Compression.negotiate(List.of("*"), List.of("gzip")).get()).isEqualTo(Compression.DEFLATE);
+        assertThat(Compression.negotiate(List.of("*"), List.of("x-gzip", "deflate")).isDefined()).isFalse();
+        assertThat(Compression.negotiate(List.of("*", "gzip"), List.empty()).get()).isEqualTo(Compression.DEFLATE);
+        assertThat(Compression.negotiate(List.empty(), List.of("gzip")).isDefined()).isFalse();
+    }
+}
@@ -0,0 +1,84 @@
+package org.reactivecouchbase.sbessentiels.tests;
+
+import org.junit.Test;
+import org.reactivecouchbase.json.JsObject;
+import org.reactivecouchbase.json.JsValue;
+import org.reactivecouchbase.json.Json;
+import org.reactivecouchbase.sbessentials.libs.json.JsonMessageConverter;
+import org.reactivecouchbase.sbessentials.libs.json.JsonWriter;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.MockHttpInputMessage;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JsonMessageConverterTest {
+
+    private final JsonMessageConverter converter = new JsonMessageConverter();
+
+    private List<JsValue> values;
+
+    @Test
+    public void supportJsonMediaTypes() {
+        assertThat(converter.canRead(JsValue.class, MediaType.APPLICATION_JSON)).isTrue();
+        assertThat(converter.canRead(JsValue.class, MediaType.parseMediaType("application/json;charset=UTF-8"))).isTrue();
+        assertThat(converter.canWrite(JsValue.class, MediaType.ALL)).isTrue();
+        assertThat(converter.canWrite(JsValue.class, null)).isTrue();
+    }
+
+    @Test
+    public void supportSuffixedJsonMediaTypes() {
+        assertThat(converter.canRead(JsValue.class, MediaType.parseMediaType("application/vnd.api+json"))).isTrue();
+        assertThat(converter.canWrite(JsValue.class, MediaType.parseMediaType("application/problem+json;charset=UTF-8"))).isTrue();
+        assertThat(converter.canRead(JsValue.class, MediaType.parseMediaType("application/*+json"))).isTrue();
+    }
+
+    @Test
+    public void rejectOtherMediaTypes() {
+        assertThat(converter.canRead(JsValue.class, MediaType.APPLICATION_XML)).isFalse();
+        assertThat(converter.canRead(JsValue.class, MediaType.parseMediaType("application/vnd.api+xml"))).isFalse();
+        assertThat(converter.canWrite(JsValue.class, MediaType.TEXT_PLAIN)).isFalse();
+        assertThat(converter.canRead(String.class, MediaType.APPLICATION_JSON)).isFalse();
+    }
+
+    @Test
+    public void listSuffixedJsonMediaTypes() {
+        assertThat(converter.getSupportedMediaTypes()).contains(MediaType.APPLICATION_JSON, MediaType.parseMediaType("application/*+json"));
+    }
+
+    @Test
+    public void readJsValues() throws Exception {
+        MockHttpInputMessage input = new MockHttpInputMessage("{\"name\":\"Bob\"}".getBytes(StandardCharsets.UTF_8));
+        input.getHeaders().setContentType(MediaType.parseMediaType("application/vnd.api+json"));
+        Object value = converter.read(JsValue.class, input);
+        assertThat(value).isInstanceOf(JsObject.class);
+        assertThat(JsonWriter.toBytes((JsValue) value).utf8String()).isEqualTo("{\"name\":\"Bob\"}");
+    }
+
+    @Test
+    public void writeJsValuesWithTheNegotiatedType() throws Exception {
+        MockHttpOutputMessage output = new MockHttpOutputMessage();
+        converter.write(Json.obj().with("name", "Bob"), MediaType.parseMediaType("application/vnd.api+json"), output);
+        assertThat(output.getHeaders().getContentType().toString()).isEqualTo("application/vnd.api+json;charset=UTF-8");
+        assertThat(output.getBodyAsString(StandardCharsets.UTF_8)).isEqualTo("{\"name\":\"Bob\"}");
+
+        MockHttpOutputMessage wildcard = new MockHttpOutputMessage();
+        converter.write(Json.obj().with("name", "Bob"), MediaType.ALL, wildcard);
+        assertThat(wildcard.getHeaders().getContentType()).isEqualTo(MediaType.APPLICATION_JSON_UTF8);
+    }
+
+    @Test
+    public void writeIterablesAsArrays() throws Exception {
+        Type type = JsonMessageConverterTest.class.getDeclaredField("values").getGenericType();
+        List<JsValue> values = Arrays.asList(Json.obj().with("id", 1), Json.obj().with("id", 2));
+        assertThat(converter.canWrite(type, values.getClass(), MediaType.APPLICATION_JSON)).isTrue();
+        MockHttpOutputMessage output = new MockHttpOutputMessage();
+        converter.write(values, type, MediaType.APPLICATION_JSON, output);
+        assertThat(output.getBodyAsString(StandardCharsets.UTF_8)).isEqualTo("[{\"id\":1},{\"id\":2}]");
+    }
+}
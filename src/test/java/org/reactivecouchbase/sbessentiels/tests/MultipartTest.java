@@ -0,0 +1,169 @@
+package org.reactivecouchbase.sbessentiels.tests;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.reactivecouchbase.sbessentials.libs.actions.EntityTooLargeException;
+import org.reactivecouchbase.sbessentials.libs.form.Multipart;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class MultipartTest {
+
+    private static final String BOUNDARY = "XyZ";
+
+    private static ActorSystem system;
+    private static Materializer materializer;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create("MultipartTest");
+        materializer = ActorMaterializer.create(system);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        system.terminate();
+    }
+
+    @Test
+    public void parseBodiesSplitAnywhere() throws Exception {
+        ByteString body = body(field("name", "Bob"), file("avatar", "a.png", "0123456789\r\n--Xy"), field("empty", ""));
+        for (int split = 1; split < body.length(); split++) {
+            List<Multipart.Part> parts = parse(Arrays.asList(body.take(split), body.drop(split)), Multipart.Settings.defaults());
+            assertParts(parts);
+        }
+        List<ByteString> bytes = new ArrayList<>();
+        for (int i = 0; i < body.length(); i++) {
+            bytes.add(body.slice(i, i + 1));
+        }
+        assertParts(parse(bytes, Multipart.Settings.defaults()));
+    }
+
+    @Test
+    public void spillLargePartsToDisk() throws Exception {
+        ByteString body = body(field("name", "Bob"), file("avatar", "a.png", "0123456789\r\n--Xy"));
+        List<Multipart.Part> parts = parse(Arrays.asList(body.take(70), body.drop(70)), new Multipart.Settings(4, 1024L, 4096L, 1024));
+        assertThat(parts.get(1).file.isDefined()).isTrue();
+        File file = parts.get(1).file.get();
+        assertThat(content(parts.get(1))).isEqualTo("0123456789\r\n--Xy");
+        awaitDeleted(file);
+    }
+
+    @Test
+    public void discardUndeliveredPartsOnCancel() throws Exception {
+        int before = tempFiles();
+        ByteString body = body(file("a", "a.txt", "aaaaaaaa"), file("b", "b.txt", "bbbbbbbb"), file("c", "c.txt", "cccccccc"));
+        List<Multipart.Part> parts = Source.single(body)
+                .via(Multipart.parts(BOUNDARY, new Multipart.Settings(4, 1024L, 4096L, 1024)))
+                .take(1)
+                .runWith(Sink.seq(), materializer)
+                .toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertThat(parts).hasSize(1);
+        parts.get(0).discard();
+        awaitTempFiles(before);
+    }
+
+    @Test
+    public void discardUndeliveredPartsOnFailure() throws Exception {
+        int before = tempFiles();
+        ByteString body = body(file("a", "a.txt", "aaaaaaaa"), file("b", "b.txt", "bbbbbbbb"), file("c", "c.txt", "too large for a part"));
+        try {
+            parse(Arrays.asList(body), new Multipart.Settings(4, 16L, 4096L, 1024));
+            fail("the last part is too large");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(EntityTooLargeException.class);
+        }
+        awaitTempFiles(before);
+    }
+
+    @Test
+    public void failOnTruncatedBodies() throws Exception {
+        ByteString body = body(field("name", "Bob"));
+        try {
+            parse(Arrays.asList(body.take(body.length() - 4)), Multipart.Settings.defaults());
+            fail("the body is truncated");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+        }
+    }
+
+    private void assertParts(List<Multipart.Part> parts) throws Exception {
+        assertThat(parts).hasSize(3);
+        assertThat(parts.get(0).name).isEqualTo("name");
+        assertThat(parts.get(0).isFile()).isFalse();
+        assertThat(content(parts.get(0))).isEqualTo("Bob");
+        assertThat(parts.get(1).name).isEqualTo("avatar");
+        assertThat(parts.get(1).filename.get()).isEqualTo("a.png");
+        assertThat(parts.get(1).contentType.get()).isEqualTo("application/octet-stream");
+        assertThat(content(parts.get(1))).isEqualTo("0123456789\r\n--Xy");
+        assertThat(parts.get(2).size).isEqualTo(0L);
+        assertThat(content(parts.get(2))).isEqualTo("");
+    }
+
+    private static List<Multipart.Part> parse(List<ByteString> chunks, Multipart.Settings settings) throws Exception {
+        return Source.from(chunks)
+                .via(Multipart.parts(BOUNDARY, settings))
+                .runWith(Sink.seq(), materializer)
+                .toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    private static String content(Multipart.Part part) throws Exception {
+        return part.body()
+                .runFold(ByteString.empty(), ByteString::concat, materializer)
+                .toCompletableFuture().get(5, TimeUnit.SECONDS)
+                .utf8String();
+    }
+
+    private static ByteString body(String... parts) {
+        StringBuilder body = new StringBuilder();
+        for (String part : parts) {
+            body.append("--").append(BOUNDARY).append("\r\n").append(part).append("\r\n");
+        }
+        body.append("--").append(BOUNDARY).append("--\r\n");
+        return ByteString.fromString(body.toString());
+    }
+
+    private static String field(String name, String value) {
+        return "Content-Disposition: form-data; name=\"" + name + "\"\r\n\r\n" + value;
+    }
+
+    private static String file(String name, String filename, String content) {
+        return "Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" + filename + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n" + content;
+    }
+
+    private static int tempFiles() {
+        File[] files = new File(System.getProperty("java.io.tmpdir")).listFiles((dir, name) -> name.startsWith("multipart-"));
+        return files == null ? 0 : files.length;
+    }
+
+    private static void awaitTempFiles(int expected) throws InterruptedException {
+        // files are deleted when the stage stops, which can be after the stream result is known
+        for (int i = 0; i < 50 && tempFiles() != expected; i++) {
+            Thread.sleep(20L);
+        }
+        assertThat(tempFiles()).isEqualTo(expected);
+    }
+
+    private static void awaitDeleted(File file) throws InterruptedException {
+        for (int i = 0; i < 50 && file.exists(); i++) {
+            Thread.sleep(20L);
+        }
+        assertThat(file.exists()).isFalse();
+    }
+}
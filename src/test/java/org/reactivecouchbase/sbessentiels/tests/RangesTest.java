@@ -0,0 +1,39 @@
+package org.reactivecouchbase.sbessentiels.tests;
+
+import javaslang.collection.List;
+import org.junit.Test;
+import org.reactivecouchbase.functional.Option;
+import org.reactivecouchbase.sbessentials.libs.result.Ranges;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RangesTest {
+
+    @Test
+    public void parseSingleRanges() {
+        assertThat(Ranges.parse("bytes=0-99", 1000).get().mkString(",")).isEqualTo("0-99");
+        assertThat(Ranges.parse("bytes=900-", 1000).get().mkString(",")).isEqualTo("900-999");
+        assertThat(Ranges.parse("bytes=-100", 1000).get().mkString(",")).isEqualTo("900-999");
+        assertThat(Ranges.parse("bytes=990-2000", 1000).get().mkString(",")).isEqualTo("990-999");
+    }
+
+    @Test
+    public void parseMultipleRanges() {
+        assertThat(Ranges.parse("bytes=0-0, 10-19,-1", 1000).get().mkString(",")).isEqualTo("0-0,10-19,999-999");
+    }
+
+    @Test
+    public void ignoreMalformedRanges() {
+        assertThat(Ranges.parse("items=0-10", 1000).isDefined()).isFalse();
+        assertThat(Ranges.parse("bytes=10-5", 1000).isDefined()).isFalse();
+        assertThat(Ranges.parse("bytes=a-b", 1000).isDefined()).isFalse();
+        assertThat(Ranges.parse("bytes=-", 1000).isDefined()).isFalse();
+    }
+
+    @Test
+    public void detectUnsatisfiableRanges() {
+        Option<List<Ranges.ByteRange>> ranges = Ranges.parse("bytes=1000-1100", 1000);
+        assertThat(ranges.isDefined()).isTrue();
+        assertThat(ranges.get().isEmpty()).isTrue();
+    }
+}